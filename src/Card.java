@@ -1,15 +1,132 @@
 
 /**
  * Represents a card in a 52 card deck
+ * Each card also has an id from 0-51 (suit ordinal * 13 + rank - 1, the order of a new Deck),
+ * and get(id) returns the one shared Card for an id, so code can work with ints instead of Cards.
  */
 public class Card implements Comparable<Object> {
 	
+	public static final int NUM_CARDS = 52;
+	//card mask of every card
+	public static final long ALL = (1L << NUM_CARDS) - 1;
+	
+	//the shared Card for each id
+	private static final Card[] CARDS = new Card[NUM_CARDS];
+	//card masks (bit id set for each card id) of cards with rank or value at most i, for i = 0-31
+	private static final long[] RANK_AT_MOST = new long[32];
+	private static final long[] VALUE_AT_MOST = new long[32];
+	static {
+		for (Suit suit : Suit.values()) {
+			for (int rank = 1; rank <= 13; rank++) {
+				Card c = new Card(suit, rank);
+				CARDS[c.id] = c;
+			}
+		}
+		for (int i = 0; i < 32; i++) {
+			for (int id = 0; id < NUM_CARDS; id++) {
+				if (rank(id) <= i) {
+					RANK_AT_MOST[i] |= 1L << id;
+				}
+				if (value(id) <= i) {
+					VALUE_AT_MOST[i] |= 1L << id;
+				}
+			}
+		}
+	}
+	
 	private Suit suit;
 	private int rank;
+	private int id;
 	
 	public Card(Suit s, int r) {
 		suit = s;
 		rank = r;
+		id = id(s, r);
+	}
+	
+	/**
+	 * Gets the shared Card with card id id
+	 * @param id 0-51
+	 * @return
+	 */
+	public static Card get(int id) {
+		return CARDS[id];
+	}
+	
+	/**
+	 * Gets the card id of a card
+	 * @param s
+	 * @param r rank 1-13
+	 * @return int 0-51
+	 */
+	public static int id(Suit s, int r) {
+		return s.ordinal() * 13 + r - 1;
+	}
+	
+	/**
+	 * Gets rank of card with card id id
+	 * @param id
+	 * @return int 1-13
+	 */
+	public static int rank(int id) {
+		return id % 13 + 1;
+	}
+	
+	/**
+	 * Gets suit ordinal of card with card id id
+	 * @param id
+	 * @return int 0-3
+	 */
+	public static int suit(int id) {
+		return id / 13;
+	}
+	
+	/**
+	 * Gets value of card with card id id when counting, with face cards worth 10
+	 * @param id
+	 * @return int 1-10
+	 */
+	public static int value(int id) {
+		return Math.min(id % 13 + 1, 10);
+	}
+	
+	/**
+	 * Gets mask of all cards with rank at most rank
+	 * @param rank 0-31
+	 * @return card mask, with bit id set for each card id
+	 */
+	public static long ranksUpTo(int rank) {
+		return RANK_AT_MOST[rank];
+	}
+	
+	/**
+	 * Gets mask of all cards with value (see value()) at most value
+	 * @param value 0-31
+	 * @return card mask, with bit id set for each card id
+	 */
+	public static long valuesUpTo(int value) {
+		return VALUE_AT_MOST[value];
+	}
+	
+	/**
+	 * Gets the card id of the nth card (counting from 0) in a card mask, in order of id
+	 * @param mask card mask
+	 * @param n less than the number of cards in mask
+	 * @return
+	 */
+	public static int nthCard(long mask, int n) {
+		int id = 0;
+		int low = Long.bitCount(mask & 0xffffffffL);
+		if (n >= low) {
+			n -= low;
+			mask >>>= 32;
+			id = 32;
+		}
+		for (int i = 0; i < n; i++) {
+			//remove lowest card
+			mask &= mask - 1;
+		}
+		return id + Long.numberOfTrailingZeros(mask);
 	}
 	
 	public Suit getSuit() {
@@ -20,6 +137,14 @@ public class Card implements Comparable<Object> {
 		return rank;
 	}
 	
+	/**
+	 * Gets card id, 0-51
+	 * @return
+	 */
+	public int getId() {
+		return id;
+	}
+	
 	/**
 	 * Do these cards have the same rank?
 	 * @param other
@@ -50,7 +175,7 @@ public class Card implements Comparable<Object> {
 	 * @return
 	 */
 	public boolean equals(Card other) {
-		if (other.rank == rank && other.suit == suit) {
+		if (other.id == id) {
 			return true;
 		}
 		return false;
@@ -1,5 +1,13 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class CheatingUCTCribbage implements CribbagePlayer {
 
@@ -9,6 +17,28 @@ public class CheatingUCTCribbage implements CribbagePlayer {
 	private long startTime;
 	private int maxNodes;
 	private int nodesExpanded;
+	private int playouts;
+	private PlayoutPolicy policy;
+	private ExecutorService pool;
+	
+	//the search tree, kept between searches so its arrays are reused
+	private NodeArena tree;
+	//transposition table: node ids by CribbageState.getHash(), EMPTY if not used, null if there is no table
+	private int[] table;
+	//node ids from the root to the node being searched from, for backup (a node can have more than one parent)
+	private int[] path;
+	private int pathLength;
+	//actions of the node being expanded
+	private int[] moves;
+	//buffer and pegging simulator for the playouts run by the searching thread
+	private int[] playoutMoves;
+	private PeggingSimulator pegging;
+	//true if nodes don't keep their states, which are found by replaying actions from the root into scratch
+	private boolean replay;
+	//state of the node the search is at, in replay mode
+	private CribbageState scratch;
+	
+	private static final int EMPTY = -1;
 	
 	/**
 	 * A Cribbage AI player that uses UCT to choose a move
@@ -20,13 +50,105 @@ public class CheatingUCTCribbage implements CribbagePlayer {
 	 * @throws Exception 
 	 */
 	public CheatingUCTCribbage(double Cp, long maxTime, int maxNodes) throws Exception {
-		rand = new Random();
+		this(Cp, maxTime, maxNodes, 1);
+	}
+	
+	/**
+	 * A Cribbage AI player that uses UCT to choose a move, with several playouts from each new node
+	 * run in parallel (leaf parallelization). The averaged result of the playouts is backed up.
+	 * @param Cp coefficient that determines amount of exploration
+	 * @param maxTime maximum amount of time in ms to spend on a move
+	 * @param maxNodes maximum number of Nodes to expand
+	 * @param playouts number of playouts from each expanded node
+	 * At least one of maxTime or MaxNodes should be greater than zero.
+	 * @throws Exception 
+	 */
+	public CheatingUCTCribbage(double Cp, long maxTime, int maxNodes, int playouts) throws Exception {
+		this(Cp, maxTime, maxNodes, playouts, 0);
+	}
+	
+	/**
+	 * A Cribbage AI player that uses UCT to choose a move, with a transposition table.
+	 * Pegging often reaches the same position by playing the same cards in a different order,
+	 * and with the table those positions share one node (and its statistics), so the tree becomes a DAG.
+	 * The table has a fixed number of entries, and a new node replaces the one in its entry,
+	 * which is still in the tree but can't be found from other paths any more.
+	 * @param Cp coefficient that determines amount of exploration
+	 * @param maxTime maximum amount of time in ms to spend on a move
+	 * @param maxNodes maximum number of Nodes to expand
+	 * @param playouts number of playouts from each expanded node
+	 * @param tableSize number of entries in the transposition table (rounded up to a power of 2), 0 for none
+	 * At least one of maxTime or MaxNodes should be greater than zero.
+	 * @throws Exception 
+	 */
+	public CheatingUCTCribbage(double Cp, long maxTime, int maxNodes, int playouts, int tableSize) throws Exception {
+		this(Cp, maxTime, maxNodes, playouts, tableSize, false);
+	}
+	
+	/**
+	 * A Cribbage AI player that uses UCT to choose a move, optionally without a game state in each node.
+	 * In replay mode a node only has its statistics and the actions to its children, and the search
+	 * applies the actions from the root to one scratch state on the way down, and undoes them after the backup.
+	 * That takes a few dozen bytes per node instead of a copy of the game state, and makes the same moves.
+	 * @param Cp coefficient that determines amount of exploration
+	 * @param maxTime maximum amount of time in ms to spend on a move
+	 * @param maxNodes maximum number of Nodes to expand
+	 * @param playouts number of playouts from each expanded node
+	 * @param tableSize number of entries in the transposition table (rounded up to a power of 2), 0 for none
+	 * @param replay true to replay actions instead of keeping a state in each node
+	 * At least one of maxTime or MaxNodes should be greater than zero.
+	 * @throws Exception 
+	 */
+	public CheatingUCTCribbage(double Cp, long maxTime, int maxNodes, int playouts, int tableSize, boolean replay) throws Exception {
+		rand = new FastRandom();
 		this.Cp = Cp;
 		if (maxTime <= 0 && maxNodes <= 0) {
 			throw new Exception("Invalid initialization of UCTCribbage: must have positive maxTime or maxNodes");
 		}
+		if (playouts < 1) {
+			throw new Exception("Invalid initialization of UCTCribbage: must have at least one playout");
+		}
+		if (tableSize < 0) {
+			throw new Exception("Invalid initialization of UCTCribbage: table size can't be negative");
+		}
 		this.maxTime = maxTime * 1000000; //ms to ns
 		this.maxNodes = maxNodes;
+		this.playouts = playouts;
+		policy = PlayoutPolicy.RANDOM;
+		this.replay = replay;
+		//grown as needed: searches that revisit the end of the hand add far fewer nodes than maxNodes
+		tree = new NodeArena(1024, !replay);
+		path = new int[16];
+		moves = new int[CribbageState.MAX_ACTIONS];
+		playoutMoves = new int[CribbageState.MAX_ACTIONS];
+		pegging = new PeggingSimulator();
+		if (tableSize > 0) {
+			int size = 1;
+			while (size < tableSize) {
+				size <<= 1;
+			}
+			table = new int[size];
+		}
+
+		if (playouts > 1) {
+			//this thread does one of the playouts itself
+			//daemon threads so an idle pool doesn't keep the program running
+			pool = Executors.newFixedThreadPool(playouts - 1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "UCT playout");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Sets how the playouts choose moves (PlayoutPolicy.RANDOM unless this is called)
+	 * @param policy
+	 */
+	public void setPlayoutPolicy(PlayoutPolicy policy) {
+		this.policy = policy;
 	}
 	
 	/**
@@ -37,43 +159,79 @@ public class CheatingUCTCribbage implements CribbagePlayer {
 	 * @throws Exception
 	 */
 	public int[] searchAndReturnVisitCounts(CribbageState state) throws Exception {
+		return searchAndReturnVisitCounts(state, maxTime, maxNodes);
+	}
+
+	/**
+	 * Same as searchAndReturnVisitCounts(state) but with a budget for this search only,
+	 * so callers can divide a budget more finely than whole ms.
+	 * @param state
+	 * @param maxTime maximum amount of time in ns, ignored if not positive
+	 * @param maxNodes maximum number of Nodes to expand, ignored if not positive
+	 * @return int[] visit counts
+	 * @throws Exception
+	 */
+	public int[] searchAndReturnVisitCounts(CribbageState state, long maxTime, int maxNodes) throws Exception {
 		startTime = System.nanoTime();
 		nodesExpanded = 0;
-		
+
 		//root node
-		Node node = new Node(state, -1, null);
-		
-		while (!timeout()) {
-			Node newNode = treePolicy(node);
-			double[] delta = defaultPolicy(new CribbageState(newNode.getState()));
-			backup(newNode, delta);
+		int node = newRoot(state);
+
+		while (!timeout(maxTime, maxNodes)) {
+			int newNode = treePolicy(node);
+			double[] delta = simulate(getState(newNode));
+			backup(delta);
+			rewind();
 			nodesExpanded++;
 		}
+		//children are in the same order as the actions
 		int[] visits = new int[state.getActions().length];
-		int i = 0;
-		for (Node n : node.getChildren()) {
-			visits[i++] = n.visits;
+		int firstEdge = tree.getFirstEdge(node);
+		for (int i = 0; i < tree.getNumChildren(node); i++) {
+			visits[i] = tree.getVisits(tree.getEdgeChild(firstEdge + i));
 		}
 		return visits;
 	}
-	
+
 	public int search(CribbageState state) throws Exception {
 		startTime = System.nanoTime();
 		nodesExpanded = 0;
-		
+
 		//root node
-		Node node = new Node(state, -1, null);
-		
-		while (!timeout()) {
-			Node newNode = treePolicy(node);
-			double[] delta = defaultPolicy(new CribbageState(newNode.getState()));
-			backup(newNode, delta);
+		int node = newRoot(state);
+
+		while (!timeout(maxTime, maxNodes)) {
+			int newNode = treePolicy(node);
+			double[] delta = simulate(getState(newNode));
+			backup(delta);
+			rewind();
 			nodesExpanded++;
 		}
-		return bestChild(node, 0).getAction();
+		return tree.getEdgeAction(bestChild(node, 0));
 	}
-	
-	private boolean timeout() {
+
+	/**
+	 * Makes the root node for a search, after clearing the tree of the last search and the transposition table
+	 * (positions from a different deal can't be compared)
+	 * @param state
+	 * @return root node id
+	 * @throws Exception
+	 */
+	private int newRoot(CribbageState state) throws Exception {
+		tree.clear();
+		if (replay) {
+			scratch = new CribbageState(state);
+		}
+		int root = tree.addNode(state, EMPTY);
+		if (table != null) {
+			Arrays.fill(table, EMPTY);
+			store(root);
+		}
+		return root;
+	}
+
+	private boolean timeout(long maxTime, int maxNodes) {
 		if (maxTime > 0 && System.nanoTime() - startTime >= maxTime) {
 			return true;
 		}
@@ -86,159 +244,373 @@ public class CheatingUCTCribbage implements CribbagePlayer {
 	/**
 	 * Descends tree: returns unexpanded node of tree if they exist,
 	 * otherwise descends further using UCB to choose
-	 * @param n start node
+	 * @param n start node id
 	 * @return new expanded node or a previously visited terminal node
-	 * @throws Exception 
+	 * @throws Exception
 	 */
-	private Node treePolicy(Node n) throws Exception {
-		while (!n.getState().handOver()) {
-			if (n.isFullyExpanded()) {
-				n = bestChild(n, Cp);
+	private int treePolicy(int n) throws Exception {
+		pathLength = 0;
+		addToPath(n);
+		while (!getState(n).handOver()) {
+			if (tree.isFullyExpanded(n)) {
+				int edge = bestChild(n, Cp);
+				if (replay) {
+					scratch.applyLegalAction(tree.getEdgeAction(edge));
+				}
+				n = tree.getEdgeChild(edge);
+				addToPath(n);
 			}
 			else {
-				return expand(n);
+				n = expand(n);
+				addToPath(n);
+				return n;
 			}
 		}
 		return n;
 	}
+
+	/**
+	 * Gets the state of a node: in replay mode, the scratch state, which has to be at that node
+	 * @param n node id
+	 * @return
+	 */
+	private CribbageState getState(int n) {
+		if (replay) {
+			return scratch;
+		}
+		return tree.getState(n);
+	}
 	
+	/**
+	 * In replay mode, takes the scratch state back to the root after an iteration
+	 * @throws Exception
+	 */
+	private void rewind() throws Exception {
+		if (replay) {
+			while (scratch.canUndo()) {
+				scratch.undoAction();
+			}
+		}
+	}
+	
+	/**
+	 * Adds a node to the end of the path for backup
+	 * @param n node id
+	 */
+	private void addToPath(int n) {
+		if (pathLength == path.length) {
+			path = Arrays.copyOf(path, path.length * 2);
+		}
+		path[pathLength++] = n;
+	}
+
 	/**
 	 * Expands node as if this is a perfect information game
-	 * @param n node to expand
-	 * @return new child node of n
+	 * @param n node id to expand
+	 * @return new child node of n, or the node already in the transposition table for the same position
 	 * @throws Exception
 	 */
-	private Node expand(Node n) throws Exception {
-		Node newNode = null;
-		int[] moves = n.getState().getActions();
-		int action = moves[n.getChildren().size()];
-		CribbageState newState = new CribbageState(n.getState());
-		newState.applyAction(action);
-		newNode = new Node(newState, action, n);
-		n.addChild(newNode);
-		//check for fully expanded
-		if (n.getChildren().size() == moves.length) {
-			n.setFullyExpanded();
-		}
-		
+	private int expand(int n) throws Exception {
+		CribbageState state = getState(n);
+		if (tree.getFirstEdge(n) == EMPTY) {
+			//first expansion: room for an edge for each action
+			int numMoves = state.getActions(moves);
+			tree.addEdges(n, moves, numMoves);
+		}
+		int edge = tree.getFirstEdge(n) + tree.getNumChildren(n);
+		CribbageState newState;
+		if (replay) {
+			newState = scratch;
+		}
+		else {
+			newState = new CribbageState(state);
+		}
+		newState.applyLegalAction(tree.getEdgeAction(edge));
+		int newNode = EMPTY;
+		if (table != null) {
+			newNode = lookup(newState.getHash());
+		}
+		if (newNode == EMPTY) {
+			newNode = tree.addNode(newState, n);
+			if (table != null) {
+				store(newNode);
+			}
+		}
+		tree.addChild(n, newNode);
+
 		return newNode;
 	}
-	
+
 	/**
-	 * Plays out game from state s with all random moves
-	 * @param s state to play from
-	 * @return double value of this playout.
+	 * Runs the playouts from a new node, in parallel if there is more than one
+	 * @param s state of the node, which is not changed
+	 * @return average value of the playouts
 	 * @throws Exception
 	 */
-	private double[] defaultPolicy(CribbageState s) throws Exception {
-		while (!s.handOver()) {
-			int[] moves = s.getActions();
-			s.applyAction(moves[rand.nextInt(moves.length)]);
+	private double[] simulate(final CribbageState s) throws Exception {
+		if (playouts == 1) {
+			return defaultPolicy(new CribbageState(s), rand, playoutMoves, pegging);
+		}
+
+		List<Future<double[]>> results = new ArrayList<Future<double[]>>(playouts - 1);
+		for (int i = 1; i < playouts; i++) {
+			results.add(pool.submit(new Callable<double[]>() {
+				public double[] call() throws Exception {
+					return defaultPolicy(new CribbageState(s), ThreadLocalRandom.current(), new int[CribbageState.MAX_ACTIONS], new PeggingSimulator());
+				}
+			}));
+		}
+		double[] rewards = defaultPolicy(new CribbageState(s), rand, playoutMoves, pegging);
+		for (Future<double[]> result : results) {
+			double[] r = result.get();
+			rewards[0] += r[0];
+			rewards[1] += r[1];
 		}
+		rewards[0] /= playouts;
+		rewards[1] /= playouts;
+		return rewards;
+	}
+
+	/**
+	 * Plays out game from state s with moves chosen by the playout policy
+	 * @param s state to play from
+	 * @param rand random number generator to use for this playout
+	 * @param moves buffer for the actions
+	 * @param pegging simulator for the pegging, not used by any other thread at the same time
+	 * @return double value of this playout.
+	 */
+	private double[] defaultPolicy(CribbageState s, Random rand, int[] moves, PeggingSimulator pegging) {
+		int diff = policy.playOut(s, rand, moves, pegging);
 		double[] rewards = new double[2];
-		rewards[0] = s.getHandPointDiff(0);
-		rewards[1] = s.getHandPointDiff(1);
+		rewards[0] = diff;
+		rewards[1] = -diff;
 		return rewards;
 	}
-	
+
 	/**
-	 * Backs up a value delta to a node n's ancestors
-	 * @param n Node
+	 * Backs up a value delta to the nodes on the path from the root found by the last treePolicy()
 	 * @param delta double
 	 */
-	private void backup(Node n, double[] delta) {
-		while (n != null) {
-			n.backupVisit(delta);
-			n = n.getParent();
+	private void backup(double[] delta) {
+		for (int i = pathLength - 1; i >= 0; i--) {
+			tree.backupVisit(path[i], delta);
 		}
 	}
-	
+
+	/**
+	 * Finds the node for a position in the transposition table
+	 * @param hash CribbageState.getHash() of the position
+	 * @return node id, EMPTY if it isn't there
+	 */
+	private int lookup(long hash) {
+		int n = table[(int) hash & (table.length - 1)];
+		if (n != EMPTY && tree.getHash(n) == hash) {
+			return n;
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Puts a node in the transposition table, replacing whatever was in its entry
+	 * @param n node id
+	 */
+	private void store(int n) {
+		table[(int) tree.getHash(n) & (table.length - 1)] = n;
+	}
+
 	/**
 	 * Returns best child to visit based on UCB algorithm
-	 * @param n node to find best child of
+	 * @param n node id to find best child of
 	 * @param c constant regulating amount of exploration
-	 * @return the best Node to visit
-	 * @throws Exception 
+	 * @return the edge to the best child to visit
+	 * @throws Exception
 	 */
-	private Node bestChild(Node n, double c) throws Exception {
-		int player = n.getState().playerToMove();
-		Node maxChild = null;
+	private int bestChild(int n, double c) throws Exception {
+		int player = getState(n).playerToMove();
+		int maxEdge = EMPTY;
 		double max = Double.NEGATIVE_INFINITY;
-		for (Node child : n.getChildren()) {
-			double val = child.getReward(player) / child.getVisits() + c * Math.sqrt(2 * Math.log(n.getVisits()) / child.getVisits());
+		double logVisits = Math.log(tree.getVisits(n));
+		int firstEdge = tree.getFirstEdge(n);
+		int lastEdge = firstEdge + tree.getNumChildren(n);
+		for (int edge = firstEdge; edge < lastEdge; edge++) {
+			int child = tree.getEdgeChild(edge);
+			int visits = tree.getVisits(child);
+			double val = tree.getReward(child, player) / visits + c * Math.sqrt(2 * logVisits / visits);
 			if (val > max) {
 				max = val;
-				maxChild = child;
+				maxEdge = edge;
 			}
 		}
-		return maxChild;	
+		return maxEdge;
 	}
 
-	
-	private class Node {
-		private CribbageState state;
-		private int action;
+	/**
+	 * The search tree, stored in parallel arrays instead of an object per node.
+	 * Nodes are numbered in the order they are added, and each node's edges (one per action, in the same order
+	 * as the actions) are a block of the edge arrays, so the children of a node are next to each other.
+	 * Edges hold the action rather than the child, because with a transposition table one node can be the child
+	 * of more than one node, by different actions.
+	 * The arrays are grown as needed and kept when the tree is cleared, so searches after the first don't allocate
+	 * anything for the tree except the states, if it keeps them.
+	 */
+	private static class NodeArena {
+		//nodes
+		private CribbageState[] states; //null if the states aren't kept
+		private long[] hashes;
+		private int[] visits;
+		//total rewards of player 0 and 1, 2 per node
 		private double[] rewards;
-		private int visits;
-		private Node parent;
-		private ArrayList<Node> childNodes;
-		private boolean fullyExpanded;
-		
-		public Node(CribbageState state, int action, Node parent) throws Exception {
-			visits = 0;
-			rewards = new double[2];
-			childNodes = new ArrayList<Node>();
-			
-			this.state = state;
-			this.parent = parent;
-			this.action = action;
-			this.fullyExpanded = false;
-		}
-		
-		public CribbageState getState() {
-			return state;
-		}
-		
-		public void backupVisit(double[] payouts) {
-			visits++;
-			for (int i = 0; i < payouts.length; i++) {
-				rewards[i] += payouts[i];
+		//node the node was first expanded from, EMPTY for the root
+		private int[] parents;
+		//first edge of the node's block of edges, EMPTY if it hasn't been expanded yet
+		private int[] firstEdges;
+		//edges in the block with a child, the rest are actions not tried yet
+		private int[] numChildren;
+		//size of the node's block of edges
+		private int[] numActions;
+		private int numNodes;
+
+		//edges
+		private int[] edgeActions;
+		private int[] edgeChildren;
+		private int numEdges;
+
+		public NodeArena(int capacity, boolean keepStates) {
+			if (keepStates) {
+				states = new CribbageState[capacity];
 			}
+			hashes = new long[capacity];
+			visits = new int[capacity];
+			rewards = new double[2 * capacity];
+			parents = new int[capacity];
+			firstEdges = new int[capacity];
+			numChildren = new int[capacity];
+			numActions = new int[capacity];
+			edgeActions = new int[capacity];
+			edgeChildren = new int[capacity];
+		}
+
+		/**
+		 * Removes all nodes, keeping the arrays
+		 */
+		public void clear() {
+			if (states != null) {
+				//let the old states be collected
+				Arrays.fill(states, 0, numNodes, null);
+			}
+			numNodes = 0;
+			numEdges = 0;
+		}
+
+		/**
+		 * Adds a node with no visits or children
+		 * @param state state of the node, only kept if the arena keeps states
+		 * @param parent node id
+		 * @return node id
+		 */
+		public int addNode(CribbageState state, int parent) {
+			if (numNodes == hashes.length) {
+				int capacity = hashes.length * 2;
+				if (states != null) {
+					states = Arrays.copyOf(states, capacity);
+				}
+				hashes = Arrays.copyOf(hashes, capacity);
+				visits = Arrays.copyOf(visits, capacity);
+				rewards = Arrays.copyOf(rewards, 2 * capacity);
+				parents = Arrays.copyOf(parents, capacity);
+				firstEdges = Arrays.copyOf(firstEdges, capacity);
+				numChildren = Arrays.copyOf(numChildren, capacity);
+				numActions = Arrays.copyOf(numActions, capacity);
+			}
+			int n = numNodes++;
+			if (states != null) {
+				states[n] = state;
+			}
+			hashes[n] = state.getHash();
+			visits[n] = 0;
+			rewards[2 * n] = 0;
+			rewards[2 * n + 1] = 0;
+			parents[n] = parent;
+			firstEdges[n] = EMPTY;
+			numChildren[n] = 0;
+			numActions[n] = 0;
+			return n;
+		}
+
+		/**
+		 * Gives a node its block of edges, one for each action
+		 * @param n node id
+		 * @param actions
+		 * @param count number of actions
+		 */
+		public void addEdges(int n, int[] actions, int count) {
+			if (numEdges + count > edgeActions.length) {
+				int capacity = Math.max(edgeActions.length * 2, numEdges + count);
+				edgeActions = Arrays.copyOf(edgeActions, capacity);
+				edgeChildren = Arrays.copyOf(edgeChildren, capacity);
+			}
+			System.arraycopy(actions, 0, edgeActions, numEdges, count);
+			firstEdges[n] = numEdges;
+			numActions[n] = count;
+			numEdges += count;
+		}
+
+		/**
+		 * Sets the child of the node's first edge without one
+		 * @param n node id
+		 * @param child node id
+		 */
+		public void addChild(int n, int child) {
+			edgeChildren[firstEdges[n] + numChildren[n]++] = child;
 		}
-		
-		public Node getParent() {
-			return parent;
+
+		public void backupVisit(int n, double[] payouts) {
+			visits[n]++;
+			rewards[2 * n] += payouts[0];
+			rewards[2 * n + 1] += payouts[1];
 		}
-		
-		public int getAction() {
-			return action;
+
+		public CribbageState getState(int n) {
+			return states[n];
 		}
-		
-		public void addChild(Node child) {
-			childNodes.add(child);
+
+		public long getHash(int n) {
+			return hashes[n];
 		}
-		
-		public int getVisits() {
-			return visits;
+
+		public int getVisits(int n) {
+			return visits[n];
 		}
-		
-		public double getReward(int player) {
+
+		public double getReward(int n, int player) {
 			if (player == -1) {
 				return 0.0;
 			}
-			return rewards[player];
+			return rewards[2 * n + player];
 		}
-		
-		public ArrayList<Node> getChildren() {
-			return childNodes;
+
+		public int getParent(int n) {
+			return parents[n];
 		}
-		
-		public boolean isFullyExpanded() {
-			return fullyExpanded;
+
+		public int getFirstEdge(int n) {
+			return firstEdges[n];
 		}
-		
-		public void setFullyExpanded() {
-			fullyExpanded = true;
+
+		public int getNumChildren(int n) {
+			return numChildren[n];
+		}
+
+		public boolean isFullyExpanded(int n) {
+			return firstEdges[n] != EMPTY && numChildren[n] == numActions[n];
+		}
+
+		public int getEdgeAction(int edge) {
+			return edgeActions[edge];
+		}
+
+		public int getEdgeChild(int edge) {
+			return edgeChildren[edge];
 		}
 	}
 
@@ -253,6 +625,19 @@ public class CheatingUCTCribbage implements CribbagePlayer {
 	}
 	
 	public String toString() {
-		return "Cheating UCT (" + Cp + ", " + (maxTime / 1000000) + ", " + maxNodes + ")";
+		String name = "Cheating UCT (" + Cp + ", " + (maxTime / 1000000) + ", " + maxNodes;
+		if (playouts > 1 || table != null) {
+			name += ", " + playouts + " playouts";
+		}
+		if (table != null) {
+			name += ", " + table.length + " table entries";
+		}
+		if (replay) {
+			name += ", replay";
+		}
+		if (policy != PlayoutPolicy.RANDOM) {
+			name += ", " + policy;
+		}
+		return name + ")";
 	}
 }
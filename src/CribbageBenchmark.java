@@ -0,0 +1,211 @@
+/**
+ * Measures the speed of the MCTS players rather than their strength (use Cribbage for that),
+ * except for playoutStrength(), which compares playout policies at the same time per move.
+ * Edit and run main to take different measurements.
+ *
+ */
+public class CribbageBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int[] threadCounts = {1, 2, 4, 8, 16, 32};
+		int timeLimit = 500; //ms
+		int numPositions = 20;
+
+		scaling(threadCounts, timeLimit, numPositions);
+		scoring(1000000);
+		playouts(1000000, 0.1);
+		playoutStrength(200, 10, 0.1);
+	}
+
+	/**
+	 * Prints the time for a playout from the start of a hand and from the start of the pegging,
+	 * with random and with greedy playouts, each played out by CribbageState and with a PeggingSimulator
+	 * @param numPlayouts number of playouts per measurement
+	 * @param epsilon for the greedy playouts
+	 * @throws Exception
+	 */
+	public static void playouts(int numPlayouts, double epsilon) throws Exception {
+		CribbageState[] hands = throwPositions(100);
+		CribbageState[] pegging = new CribbageState[hands.length];
+		FastRandom rand = new FastRandom(1);
+		int[] moves = new int[CribbageState.MAX_ACTIONS];
+		for (int i = 0; i < hands.length; i++) {
+			pegging[i] = new CribbageState(hands[i]);
+			while (pegging[i].getStage() != CribbageStage.PLAY) {
+				pegging[i].applyLegalAction(PlayoutPolicy.RANDOM.chooseAction(pegging[i], rand, moves));
+			}
+		}
+		CribbageState s = new CribbageState(hands[0]);
+		PeggingSimulator simulator = new PeggingSimulator();
+
+		PlayoutPolicy[] policies = {PlayoutPolicy.RANDOM, new PlayoutPolicy(epsilon)};
+		//first round is warm up
+		for (int round = 0; round < 2; round++) {
+			for (PlayoutPolicy policy : policies) {
+				String line = policy + ":";
+				for (CribbageState[] positions : new CribbageState[][] {hands, pegging}) {
+					long points = 0;
+					long start = System.nanoTime();
+					for (int i = 0; i < numPlayouts; i++) {
+						s.copyFrom(positions[i % positions.length]);
+						policy.playOut(s, rand, moves);
+						points += s.getHandPointDiff(0);
+					}
+					double stateTime = (double) (System.nanoTime() - start) / numPlayouts;
+
+					start = System.nanoTime();
+					for (int i = 0; i < numPlayouts; i++) {
+						s.copyFrom(positions[i % positions.length]);
+						points += policy.playOut(s, rand, moves, simulator);
+					}
+					double simulatorTime = (double) (System.nanoTime() - start) / numPlayouts;
+
+					//points are printed so the playouts can't be optimized away
+					line += (positions == hands ? " from the deal " : ", from the cut ") + String.format("%.0f", stateTime)
+							+ " ns per playout (" + String.format("%.0f", simulatorTime) + " with pegging simulator)";
+					if (positions == pegging) {
+						line += ", average points " + String.format("%.2f", points / (2.0 * numPlayouts));
+					}
+				}
+				if (round == 1) {
+					System.out.println(line);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Plays SO-ISMCTS with greedy playouts against SO-ISMCTS with random playouts, with the same time per move,
+	 * and prints the number of games each won
+	 * @param numGames number of games, each player is first dealer in half of them
+	 * @param timeLimit ms per move
+	 * @param epsilon for the greedy playouts
+	 * @throws Exception
+	 */
+	public static void playoutStrength(int numGames, int timeLimit, double epsilon) throws Exception {
+		SingleObserverCribbage greedy = new SingleObserverCribbage(2.0, timeLimit, 0);
+		greedy.setPlayoutPolicy(new PlayoutPolicy(epsilon));
+		CribbagePlayer[] players = {greedy, new SingleObserverCribbage(2.0, timeLimit, 0)};
+		System.out.println(players[0] + " vs " + players[1]);
+
+		int[] wins = {0, 0};
+		for (int i = 0; i < numGames; i++) {
+			//players swap seats every game, so that each is first dealer in half the games
+			int j = i % 2;
+			CribbageState s = new CribbageState();
+			while (s.getWinner() == -1) {
+				int toMove = s.playerToMove();
+				if (toMove == -1) {
+					s.applyAction(0);
+				}
+				else {
+					s.applyAction(players[(toMove + j) % 2].getMove(s));
+				}
+			}
+			wins[(s.getWinner() + j) % 2]++;
+		}
+		System.out.println("Greedy playouts won " + wins[0] + ", random playouts won " + wins[1]);
+	}
+
+	/**
+	 * Prints the time to count a show hand, with the rank table (CribbageScoring.countHand())
+	 * and with the table-free kernel (CribbageScoring.countCards())
+	 * @param numHands number of random hands to count, each counted 10 times per measurement
+	 */
+	public static void scoring(int numHands) {
+		//4 cards and the cut for each hand
+		int[] hands = new int[numHands * 5];
+		FastRandom rand = new FastRandom(1);
+		for (int h = 0; h < numHands; h++) {
+			long used = 0;
+			for (int i = 0; i < 5; i++) {
+				int id;
+				do {
+					id = rand.nextInt(Card.NUM_CARDS);
+				} while ((used & (1L << id)) != 0);
+				used |= 1L << id;
+				hands[h * 5 + i] = id;
+			}
+		}
+
+		//first round is warm up
+		for (int round = 0; round < 2; round++) {
+			long total = 0;
+			long start = System.nanoTime();
+			for (int r = 0; r < 10; r++) {
+				for (int h = 0; h < hands.length; h += 5) {
+					total += CribbageScoring.countHand(hands[h], hands[h + 1], hands[h + 2], hands[h + 3], hands[h + 4], false);
+				}
+			}
+			double tableTime = (double) (System.nanoTime() - start) / (10L * numHands);
+
+			start = System.nanoTime();
+			for (int r = 0; r < 10; r++) {
+				for (int h = 0; h < hands.length; h += 5) {
+					total += CribbageScoring.countCards((1L << hands[h]) | (1L << hands[h + 1]) | (1L << hands[h + 2])
+							| (1L << hands[h + 3]) | (1L << hands[h + 4]));
+				}
+			}
+			double kernelTime = (double) (System.nanoTime() - start) / (10L * numHands);
+
+			if (round == 1) {
+				//total is printed so the counting can't be optimized away
+				System.out.println("Scoring (total " + total + "): table " + String.format("%.1f", tableTime)
+						+ " ns per hand, kernel " + String.format("%.1f", kernelTime) + " ns per hand");
+			}
+		}
+	}
+
+	/**
+	 * Prints the number of SO-ISMCTS iterations per move for each number of threads,
+	 * with both root parallelization and a shared tree
+	 * @param threadCounts numbers of threads to test
+	 * @param timeLimit ms per move
+	 * @param numPositions number of moves to average over
+	 * @throws Exception
+	 */
+	public static void scaling(int[] threadCounts, int timeLimit, int numPositions) throws Exception {
+		CribbageState[] positions = throwPositions(numPositions);
+
+		//warm up
+		SingleObserverCribbage warmUp = new SingleObserverCribbage(2.0, timeLimit, 0);
+		for (CribbageState s : positions) {
+			warmUp.search(s);
+		}
+
+		System.out.println("Processors: " + Runtime.getRuntime().availableProcessors());
+		for (boolean sharedTree : new boolean[] {false, true}) {
+			System.out.println(sharedTree ? "Shared tree:" : "Root parallel:");
+			double base = 0;
+			for (int t : threadCounts) {
+				SingleObserverCribbage player = new SingleObserverCribbage(2.0, timeLimit, 0, t, sharedTree);
+				long total = 0;
+				for (CribbageState s : positions) {
+					player.search(s);
+					total += player.getNodesExpanded();
+				}
+				double perMove = (double) total / positions.length;
+				if (base == 0) {
+					base = perMove;
+				}
+				System.out.println(t + " threads: " + Math.round(perMove) + " iterations per move, speedup " + String.format("%.2f", perMove / base));
+			}
+		}
+	}
+
+	/**
+	 * Deals a number of new hands
+	 * @param n number of hands
+	 * @return states at start of THROW stage
+	 * @throws Exception
+	 */
+	private static CribbageState[] throwPositions(int n) throws Exception {
+		CribbageState[] positions = new CribbageState[n];
+		for (int i = 0; i < n; i++) {
+			positions[i] = new CribbageState();
+			positions[i].applyAction(0);
+		}
+		return positions;
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * Counts Cribbage hands at the show, from card ids (see Card.getId()).
+ * countCards() counts fifteens, pairs and runs in any set of up to 5 cards without sorting or allocating.
+ * Those points only depend on the ranks of the cards, so for a full hand (4 cards and the cut) they are looked up
+ * in a table with an entry for every multiset of 5 ranks (13 multichoose 5 = 6188 entries), built with countCards()
+ * when the class loads. Flush and his nobs are added separately. 4 card hands (without the cut) have a table too
+ * (13 multichoose 4 = 1820 entries), so that playouts can try every throw quickly.
+ *
+ */
+public class CribbageScoring {
+
+	//points from fifteens, pairs and runs for each multiset of 5 ranks, see rankIndex()
+	private static final byte[] RANK_POINTS = new byte[6188];
+	//the same for multisets of 4 ranks, indexed like RANK_POINTS, see countSortedRanks()
+	private static final byte[] RANK_POINTS_4 = new byte[1820];
+	//RANK_INDEX_4[13 * i + r] is the part of the index in RANK_POINTS_4 for rank r in place i of 4 sorted ranks
+	private static final int[] RANK_INDEX_4 = new int[52];
+	//CHOOSE[n][k] is n choose k
+	private static final int[][] CHOOSE = new int[17][6];
+
+	static {
+		for (int n = 0; n < 17; n++) {
+			CHOOSE[n][0] = 1;
+			for (int k = 1; k < 6 && k <= n; k++) {
+				CHOOSE[n][k] = CHOOSE[n - 1][k - 1] + (k < n ? CHOOSE[n - 1][k] : 0);
+			}
+		}
+		for (int i = 0; i < 4; i++) {
+			for (int r = 0; r < 13; r++) {
+				RANK_INDEX_4[13 * i + r] = CHOOSE[r + i][i + 1];
+			}
+		}
+		//cards of the same rank get different suits
+		for (int r0 = 0; r0 < 13; r0++) {
+			for (int r1 = r0; r1 < 13; r1++) {
+				for (int r2 = r1; r2 < 13; r2++) {
+					for (int r3 = r2; r3 < 13; r3++) {
+						long four = 1L << r0;
+						four = addRank(four, r1);
+						four = addRank(four, r2);
+						four = addRank(four, r3);
+						RANK_POINTS_4[RANK_INDEX_4[r0] + RANK_INDEX_4[13 + r1] + RANK_INDEX_4[26 + r2] + RANK_INDEX_4[39 + r3]] = (byte) countCards(four);
+						for (int r4 = r3; r4 < 13; r4++) {
+							long cards = 1L << r0;
+							cards = addRank(cards, r1);
+							cards = addRank(cards, r2);
+							cards = addRank(cards, r3);
+							cards = addRank(cards, r4);
+							RANK_POINTS[rankIndex(r0, r1, r2, r3, r4)] = (byte) countCards(cards);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts points for fifteens, pairs and runs in a set of cards
+	 * @param cards card mask of up to 5 cards
+	 * @return
+	 */
+	public static int countCards(long cards) {
+		int points = 0;
+		//number of cards of each rank, 4 bits per rank
+		long rankCounts = 0;
+		//number of subsets of the cards adding up to each total from 0 to 15, 4 bits per total
+		long sums = 1;
+		for (long rest = cards; rest != 0; rest &= rest - 1) {
+			int id = Long.numberOfTrailingZeros(rest);
+			int rank = id % 13;
+
+			//pairs: 2 for each earlier card of the same rank
+			points += 2 * (int) ((rankCounts >>> (4 * rank)) & 15);
+			rankCounts += 1L << (4 * rank);
+
+			//every subset so far, with and without this card (totals over 15 are shifted off the top)
+			sums += sums << (4 * Card.value(id));
+		}
+
+		//fifteens
+		points += 2 * (int) (sums >>> 60);
+
+		//runs: the longest sequence of ranks present, once for every way to pick one card of each rank
+		int present = 0;
+		for (int rank = 0; rank < 13; rank++) {
+			if (((rankCounts >>> (4 * rank)) & 15) != 0) {
+				present |= 1 << rank;
+			}
+		}
+		int runStarts = present & (present >>> 1) & (present >>> 2);
+		if (runStarts != 0) {
+			//5 cards can only have one run
+			int start = Integer.numberOfTrailingZeros(runStarts);
+			int length = 0;
+			int ways = 1;
+			while ((present & (1 << (start + length))) != 0) {
+				ways *= (int) ((rankCounts >>> (4 * (start + length))) & 15);
+				length++;
+			}
+			points += length * ways;
+		}
+
+		return points;
+	}
+
+	/**
+	 * Counts a 4 card hand without a cut, (fifteens, pairs, runs and flush)
+	 * For estimating the value of a hand before the cut.
+	 * @param c0 card id
+	 * @param c1 card id
+	 * @param c2 card id
+	 * @param c3 card id
+	 * @return
+	 */
+	public static int countHand(int c0, int c1, int c2, int c3) {
+		int points = countCards((1L << c0) | (1L << c1) | (1L << c2) | (1L << c3));
+		int suit = Card.suit(c0);
+		if (Card.suit(c1) == suit && Card.suit(c2) == suit && Card.suit(c3) == suit) {
+			points += 4;
+		}
+		return points;
+	}
+
+	/**
+	 * Counts fifteens, pairs and runs in 4 cards without a cut, given their ranks in order,
+	 * for counting many hands from the same cards (which then only have to be sorted once)
+	 * @param r0 lowest rank - 1 (0-12)
+	 * @param r1
+	 * @param r2
+	 * @param r3 highest rank - 1
+	 * @return
+	 */
+	public static int countSortedRanks(int r0, int r1, int r2, int r3) {
+		return RANK_POINTS_4[RANK_INDEX_4[r0] + RANK_INDEX_4[13 + r1] + RANK_INDEX_4[26 + r2] + RANK_INDEX_4[39 + r3]];
+	}
+
+	/**
+	 * Counts a hand according to Cribbage rules
+	 * @param c0 card id of first card in hand
+	 * @param c1 card id
+	 * @param c2 card id
+	 * @param c3 card id
+	 * @param cut card id
+	 * @param crib is this hand a crib (affects flush)
+	 * @return
+	 */
+	public static int countHand(int c0, int c1, int c2, int c3, int cut, boolean crib) {
+		int points = RANK_POINTS[rankIndex(c0 % 13, c1 % 13, c2 % 13, c3 % 13, cut % 13)];
+
+		//flush
+		int suit = Card.suit(c0);
+		if (Card.suit(c1) == suit && Card.suit(c2) == suit && Card.suit(c3) == suit) {
+			if (Card.suit(cut) == suit) {
+				points += 5;
+			}
+			else if (!crib) {
+				points += 4;
+			}
+		}
+
+		//his nob: jack of the same suit as the cut
+		int nob = Card.suit(cut) * 13 + 10;
+		if (c0 == nob || c1 == nob || c2 == nob || c3 == nob) {
+			points += 1;
+		}
+
+		return points;
+	}
+
+	/**
+	 * Gets index in RANK_POINTS of a multiset of 5 ranks, given in any order
+	 * @param r0 rank - 1 (0-12)
+	 * @param r1
+	 * @param r2
+	 * @param r3
+	 * @param r4
+	 * @return
+	 */
+	private static int rankIndex(int r0, int r1, int r2, int r3, int r4) {
+		int t;
+		//sorting network for 5 values
+		if (r0 > r1) { t = r0; r0 = r1; r1 = t; }
+		if (r3 > r4) { t = r3; r3 = r4; r4 = t; }
+		if (r2 > r4) { t = r2; r2 = r4; r4 = t; }
+		if (r2 > r3) { t = r2; r2 = r3; r3 = t; }
+		if (r0 > r3) { t = r0; r0 = r3; r3 = t; }
+		if (r0 > r2) { t = r0; r0 = r2; r2 = t; }
+		if (r1 > r4) { t = r1; r1 = r4; r4 = t; }
+		if (r1 > r3) { t = r1; r1 = r3; r3 = t; }
+		if (r1 > r2) { t = r1; r1 = r2; r2 = t; }
+		//sorted ranks r0 <= ... <= r4 become 5 different numbers r0 < r1 + 1 < ... < r4 + 4 (all < 17),
+		//which are numbered in colexicographic order
+		return CHOOSE[r0][1] + CHOOSE[r1 + 1][2] + CHOOSE[r2 + 2][3] + CHOOSE[r3 + 3][4] + CHOOSE[r4 + 4][5];
+	}
+
+	/**
+	 * Adds a card of rank rank to cards, in the first suit that isn't already there
+	 * @param cards card mask
+	 * @param rank 0-12
+	 * @return
+	 */
+	private static long addRank(long cards, int rank) {
+		int id = rank;
+		while ((cards & (1L << id)) != 0) {
+			id += 13;
+		}
+		return cards | (1L << id);
+	}
+}
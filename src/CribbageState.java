@@ -3,102 +3,196 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Random;
 
+/**
+ * The state of a Cribbage game.
+ * Everything is kept in primitive fields (cards as ids 0-51, see Card.getId()), so that copying a state,
+ * which the MCTS players do constantly, is just a few field stores.
+ * Arrays of Cards returned by the getters are new views built from those fields.
+ */
 public class CribbageState {
-	
-	private Card[] crib;
-	private Card cut;
+
+	private int crib; //4 card ids, 6 bits each, EMPTY if not thrown yet
+	private int cut; //card id, or EMPTY before the cut
 	private Deck deck;
+	private boolean deckShared; //deck is also used by a copy of this state, so it has to be copied before it's changed
+	private int deckCount; //number of cards drawn from deck
 	private CribbageStage stage;
 	private int playerToMove;
 	private int dealer;
-	private Player[] players;
-	
+
+	//players: the 6 cards dealt to each player as 6-bit card ids (slot i at bits 6i to 6i + 5), EMPTY once thrown
+	private long hand0;
+	private long hand1;
+	//card masks (bit id set for card id) of cards still in hand, not thrown or played
+	private long inHand0;
+	private long inHand1;
+	//index of action used to throw cards this hand, -1 if not thrown yet
+	private int throwIndex0;
+	private int throwIndex1;
+	private int score0;
+	private int score1;
+	private int handScore0;
+	private int handScore1;
+
 	//play information
 	private int playCount;
-	private Card[] cardsPlayed;
+	private long cardsPlayed; //all cards played in this hand, in order, 6 bits each
 	private int numCardsPlayed;
-	
+	private int playStart; //index in cardsPlayed of the first card since the last reset (after a go or 31)
+	//kept up to date as cards are played, so that the points for each card are found without going back over the cards
+	private int pairStreak; //number of cards of the same rank at the end of this round of play, 0 before the first card
+	private int runRanks; //ranks (bit rank) of the longest run of cards at the end of this round of play with no repeated rank
+
 	private boolean handOver;
-	
+
+	//Zobrist hash of the cards, see getHash()
+	private long hash;
+
 	private Collection<CribbageUpdateable> toUpdate;
-	
+
+	//undo information: one frame of FRAME_SIZE ints for each action applied since the last deal
+	private int[] history;
+	private int historySize;
+	private static final int FRAME_SIZE = 18;
+
+	//index of first and second card (0-5) thrown by each throw action (0-14), see throwCards()
+	private static final int[] THROW_FIRST = {0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 3, 3, 4};
+	private static final int[] THROW_SECOND = {1, 2, 3, 4, 5, 2, 3, 4, 5, 3, 4, 5, 4, 5, 5};
+
+	//most legal actions there can be (in THROW), enough for any buffer passed to getActions(int[])
+	public static final int MAX_ACTIONS = 15;
+
+	//card actions (see getCardActions()) are card ids for the cut and cards played,
+	//THROW_ACTIONS + an index for each pair of cards thrown (see throwAction()), or NO_CARD to deal
+	public static final int THROW_ACTIONS = Card.NUM_CARDS;
+	public static final int NUM_CARD_ACTIONS = THROW_ACTIONS + Card.NUM_CARDS * (Card.NUM_CARDS - 1) / 2;
+	public static final int NO_CARD = -1;
+
+	//random keys for Zobrist hashing: one for each card in each place it can be, starting at these offsets
+	private static final int HAND_KEYS = 0; //2 players, kept (not thrown)
+	private static final int IN_HAND_KEYS = 2 * 52; //2 players, not thrown or played
+	private static final int CRIB_KEYS = 4 * 52;
+	private static final int CUT_KEYS = 5 * 52;
+	private static final int PLAYED_KEYS = 6 * 52; //8 positions since the last go or 31
+	private static final long[] ZOBRIST = new long[14 * 52];
+
+	static {
+		//fixed seed, so hashes are the same every run
+		FastRandom rand = new FastRandom(52);
+		for (int i = 0; i < ZOBRIST.length; i++) {
+			ZOBRIST[i] = rand.nextLong();
+		}
+	}
+
+	//stages by ordinal, for undo (values() makes a new array every time)
+	private static final CribbageStage[] STAGES = CribbageStage.values();
+
+	//points for the last 1-4 cards played being the same rank
+	private static final int[] PAIR_POINTS = {0, 0, 2, 6, 12};
+
+	//card id of an empty slot
+	private static final int EMPTY = 63;
+	//hand before the first deal
+	private static final long NO_HAND = -1L;
+	private static final int EMPTY_CRIB = (EMPTY << 18) | (EMPTY << 12) | (EMPTY << 6) | EMPTY;
+
 	public CribbageState() {
-		
-		players = new Player[2];
-		players[0] = new Player();
-		players[1] = new Player();
-		
+
+		hand0 = NO_HAND;
+		hand1 = NO_HAND;
+		cut = EMPTY;
+		crib = EMPTY_CRIB;
+		throwIndex0 = -1;
+		throwIndex1 = -1;
+
 		dealer = 0;
 		playerToMove = -1; //represents game to move (deal)
 		stage = CribbageStage.DEAL;
 		deck = new Deck();
 		handOver = true;
-		
+
 		newHand();
-		
+
 		//play initialization
 		resetPlay();
-		
+
 		toUpdate = new ArrayList<CribbageUpdateable>();
 	}
-	
+
 	/**
-	 * Copy constructor, copies entire game state, excluding listeners
+	 * Copy constructor, copies entire game state, excluding listeners and undo history.
+	 * Hand scores start again from zero in the copy, so getHandPointDiff() of the copy
+	 * measures points scored since it was made.
 	 * @param source game state to copy
 	 */
 	CribbageState(CribbageState source) {
-		if (source.crib == null) {
-			this.crib = null;
-		}
-		else {
-			this.crib = new Card[source.crib.length];
-			for (int i = 0; i < source.crib.length; i++) {
-				//need I check if null?
-				this.crib[i] = source.crib[i];
-			}
-		}
-		
-		if (source.cardsPlayed == null) {
-			this.cardsPlayed = null;
-		}
-		else {
-			this.cardsPlayed = new Card[source.cardsPlayed.length];
-			for (int i = 0; i < source.cardsPlayed.length; i++) {
-				//need I check if null?
-				this.cardsPlayed[i] = source.cardsPlayed[i];
-			}
-		}
-		
-		if (source.players == null) {
-			this.players = null;
-		}
-		else {
-			this.players = new Player[2];
-			this.players[0] = new Player(source.players[0]);
-			this.players[1] = new Player(source.players[1]);
-		}
-		
-		if (source.deck == null) {
-			this.deck = null;
+		copyFields(source);
+
+		//the deck is only copied when one of the two states changes it
+		this.deck = source.deck;
+		this.deckShared = true;
+		source.deckShared = true;
+
+		//don't copy listeners, because we don't want to send updates from copies
+	}
+
+	/**
+	 * Makes this state a copy of source, the same as the copy constructor, but reusing this state's deck
+	 * and undo history instead of making new ones, so that (after the first time) it doesn't allocate anything.
+	 * For searches that make a new determinization of the same state over and over.
+	 * Listeners are not changed, and source isn't changed at all, so several threads can copy the same state.
+	 * @param source game state to copy
+	 */
+	void copyFrom(CribbageState source) {
+		copyFields(source);
+
+		//copied into this state's own deck, unless a copy of this state still uses it
+		if (deckShared) {
+			deck = new Deck(source.deck);
+			deckShared = false;
 		}
 		else {
-			this.deck = new Deck(source.deck);	
+			deck.copyFrom(source.deck);
 		}
-		
+
+		historySize = 0;
+	}
+
+	/**
+	 * Copies everything but the deck, the listeners and the undo history, and starts hand scores from zero
+	 * @param source
+	 */
+	private void copyFields(CribbageState source) {
+		this.crib = source.crib;
+		this.cut = source.cut;
+		this.deckCount = source.deckCount;
+
+		this.hand0 = source.hand0;
+		this.hand1 = source.hand1;
+		this.inHand0 = source.inHand0;
+		this.inHand1 = source.inHand1;
+		this.throwIndex0 = source.throwIndex0;
+		this.throwIndex1 = source.throwIndex1;
+		this.score0 = source.score0;
+		this.score1 = source.score1;
+		this.handScore0 = 0;
+		this.handScore1 = 0;
+
 		this.stage = source.stage;
 		this.playerToMove = source.playerToMove;
 		this.dealer = source.dealer;
-		this.cut = source.cut;
 		this.playCount = source.playCount;
+		this.cardsPlayed = source.cardsPlayed;
 		this.numCardsPlayed = source.numCardsPlayed;
+		this.playStart = source.playStart;
+		this.pairStreak = source.pairStreak;
+		this.runRanks = source.runRanks;
 		this.handOver = source.handOver;
-		
-		//don't copy this, because we don't want to send updates from copies
-		this.toUpdate = new ArrayList<CribbageUpdateable>();
+		this.hash = source.hash;
 	}
-	
+
 	public int getScore(int player) {
-		return players[player].getScore();
+		return player == 0 ? score0 : score1;
 	}
 
 	public int playerToMove() {
@@ -109,27 +203,44 @@ public class CribbageState {
 		return dealer;
 	}
 
-	public int getWinner() { 
-		if (players[0].getScore() >= 121) {
+	public int getWinner() {
+		if (score0 >= 121) {
 			return 0;
 		}
-		else if (players[1].getScore() >= 121) {
+		else if (score1 >= 121) {
 			return 1;
 		}
 		else {
 			return -1;
 		}
 	}
-	
+
 	/**
 	 * Gets the net gain(loss) in points for player during current hand
 	 * @param player int
 	 * @return
 	 */
 	public int getHandPointDiff(int player) {
-		return players[player].getHandScore() - players[(player + 1) % 2].getHandScore();
+		return player == 0 ? handScore0 - handScore1 : handScore1 - handScore0;
+	}
+
+	/**
+	 * Gets a hash of the position, which is the same for states that play out the same way from here:
+	 * same cards kept and not played in each hand, crib, cut, cards played since the last go or 31 (in order),
+	 * scores, stage, dealer and player to move. Cards played before the last go or 31 only count through the hands,
+	 * so the same cards played in a different order give the same hash once the count is reset.
+	 * The deck isn't included, so only states from the same deal should be compared.
+	 * @return
+	 */
+	public long getHash() {
+		long other = stage.ordinal() | (playerToMove + 1) << 2 | dealer << 4 | (handOver ? 1 : 0) << 5
+				| (long) score0 << 8 | (long) score1 << 24;
+		//mix the bits so that small differences change the whole hash
+		other *= 0x9E3779B97F4A7C15L;
+		other ^= other >>> 32;
+		return hash ^ other;
 	}
-	
+
 	/**
 	 * Returns true only when a hand is finished but the next one hasn't been dealt yet
 	 * @return
@@ -139,11 +250,15 @@ public class CribbageState {
 	}
 
 	public Deck getDeck() {
+		ownDeck();
+		deck.setCount(deckCount);
 		return deck;
 	}
 
 	public void setDeck(Deck deck) {
 		this.deck = deck;
+		deckShared = false;
+		deckCount = deck.getCount();
 	}
 
 	public CribbageStage getStage() {
@@ -151,36 +266,116 @@ public class CribbageState {
 	}
 
 	public Card[] getCrib() {
-		return crib; 
+		Card[] cards = new Card[4];
+		for (int i = 0; i < 4; i++) {
+			cards[i] = card(slot(crib, i));
+		}
+		return cards;
 	}
 
 	public Card getCut() {
-		return cut;
+		return card(cut);
+	}
+
+	/**
+	 * Gets card id of the cut card
+	 * @return card id, or -1 before the cut
+	 */
+	public int getCutId() {
+		return publicId(cut);
+	}
+
+	/**
+	 * Gets card id of a card in the crib
+	 * @param index 0-3, 0 and 1 thrown by player 0, 2 and 3 by player 1
+	 * @return card id, or -1 if not thrown yet
+	 */
+	public int getCribId(int index) {
+		return publicId(slot(crib, index));
+	}
+
+	/**
+	 * Gets card id of a card in player's full hand (see getFullHand())
+	 * @param player
+	 * @param index 0-5
+	 * @return card id, or -1 if thrown or no hand has been dealt
+	 */
+	public int getHandId(int player, int index) {
+		long hand = hand(player);
+		if (hand == NO_HAND) {
+			return -1;
+		}
+		return publicId(slot(hand, index));
+	}
+
+	/**
+	 * Gets the cards that the player has not thrown or played in this hand as a card mask
+	 * @param player
+	 * @return mask with bit id set for each card id (see Card.getId())
+	 */
+	public long getHandMask(int player) {
+		return inHand(player);
+	}
+
+	/**
+	 * Gets card id of the last card played since the last go or 31
+	 * @return card id, or -1 if none
+	 */
+	public int getLastCardPlayedId() {
+		if (numCardsPlayed > playStart) {
+			return slot(cardsPlayed, numCardsPlayed - 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the number of cards played so far in this hand (not just since the last go or 31)
+	 * @return
+	 */
+	public int getNumCardsPlayed() {
+		return numCardsPlayed;
+	}
+
+	/**
+	 * Gets the number of cards played in this hand before the last go or 31
+	 * @return index (see getPlayedId()) of the first card played since then
+	 */
+	public int getPlayStart() {
+		return playStart;
 	}
-	
+
+	/**
+	 * Gets card id of a card played in this hand
+	 * @param index 0 for the first card played in the hand, up to getNumCardsPlayed() - 1
+	 * @return card id
+	 */
+	public int getPlayedId(int index) {
+		return slot(cardsPlayed, index);
+	}
+
 	/**
 	 * Gets array of cards played in play stage of game
 	 * @return
 	 */
 	public Card[] getCardsPlayed() {
-		if (numCardsPlayed > 0) {
-			Card[] actualCardsPlayed = new Card[numCardsPlayed];
-			for (int i = 0; i < numCardsPlayed; i++) {
-				actualCardsPlayed[i] = cardsPlayed[i];
+		if (numCardsPlayed > playStart) {
+			Card[] actualCardsPlayed = new Card[numCardsPlayed - playStart];
+			for (int i = playStart; i < numCardsPlayed; i++) {
+				actualCardsPlayed[i - playStart] = card(slot(cardsPlayed, i));
 			}
 			return actualCardsPlayed;
 		}
-		
+
 		return null;
 	}
-	
+
 	public Card getLastCardPlayed() {
-		if (numCardsPlayed > 0) {
-			return cardsPlayed[numCardsPlayed - 1];
+		if (numCardsPlayed > playStart) {
+			return card(slot(cardsPlayed, numCardsPlayed - 1));
 		}
 		return null;
 	}
-	
+
 	/**
 	 * Sum of ranks of cards played in play stage
 	 * @return
@@ -190,51 +385,112 @@ public class CribbageState {
 	}
 
 	/**
-	 * Returns the cards that the player has not thrown or played in this hand 
+	 * Gets the points the player to move would peg by playing the card at index in their hand,
+	 * from a fifteen, 31, pairs or a run (not the go)
+	 * @param a PLAY action
+	 * @return
+	 */
+	public int getPlayPoints(int a) {
+		int id = slot(hand(playerToMove), a);
+		int points = 0;
+		int count = playCount + Card.value(id);
+		if (count == 15 || count == 31) {
+			points += 2;
+		}
+		int rank = Card.rank(id);
+		int streak = pairStreak(rank);
+		if (streak > 1) {
+			return points + PAIR_POINTS[streak];
+		}
+		return points + runPoints(rank, runRanks(rank));
+	}
+
+	/**
+	 * Returns the cards that the player has not thrown or played in this hand
 	 * @param player
 	 * @return
 	 */
 	public Card[] getPlayableHand(int player) {
-		return players[player].getHandNotPlayed();
+		long hand = hand(player);
+		long mask = inHand(player);
+		Card[] inHand = new Card[cardsToPlay(player)];
+		int count = 0;
+		for (int i = 0; i < 6; i++) {
+			if ((mask & (1L << slot(hand, i))) != 0) {
+				inHand[count++] = card(slot(hand, i));
+			}
+		}
+		return inHand;
 	}
-	
+
 	/**
 	 * Gets cards that the player has not thrown in this hand
+	 * (all 6 cards of hand or 4 if THROW has happened)
 	 * @param player
 	 * @return
 	 */
 	public Card[] getCurrentHand(int player) {
-		return players[player].getCurrentHand();
+		long hand = hand(player);
+		if (hand == NO_HAND) {
+			return null;
+		}
+		Card[] inHand = new Card[throwIndex(player) >= 0 ? 4 : 6];
+		int count = 0;
+		for (int i = 0; i < 6; i++) {
+			if (slot(hand, i) != EMPTY) {
+				inHand[count++] = card(slot(hand, i));
+			}
+		}
+		return inHand;
 	}
-	
+
 	/**
 	 * Returns full player hand, with null for cards thrown after throw stage
 	 * @param player
 	 * @return
 	 */
 	public Card[] getFullHand(int player) {
-		return players[player].getFullHand();
+		long hand = hand(player);
+		if (hand == NO_HAND) {
+			return null;
+		}
+		Card[] cards = new Card[6];
+		for (int i = 0; i < 6; i++) {
+			cards[i] = card(slot(hand, i));
+		}
+		return cards;
 	}
-	
+
 	/**
 	 * Gets indexes of cards played by this player (0-5) in player's hand
 	 * @param player
-	 * @return
-	 * @throws Exception
+	 * @return int[] of size 1-3 with numbers in range 0-5
+	 * @throws Exception if no cards have been revealed yet
 	 */
 	public int[] getPlayedIndexes(int player) throws Exception {
-		return players[player].getPlayedCardIndexes();
+		if (cardsToPlay(player) >= 4) {
+			throw new Exception("no cards revealed yet");
+		}
+		return playedIndexes(player);
 	}
-	
+
 	/**
 	 * Gets array of booleans indicating if a card has been played yet (true) for player player
 	 * @param player
 	 * @return
 	 */
 	public boolean[] getPlayed(int player) {
-		return players[player].getPlayed();
+		if (hand(player) == NO_HAND) {
+			return null;
+		}
+		long mask = inHand(player);
+		boolean[] result = new boolean[6];
+		for (int i = 0; i < 6; i++) {
+			result[i] = (mask & (1L << slot(hand(player), i))) == 0;
+		}
+		return result;
 	}
-	
+
 	/**
 	 * Gets the two cards selected by the index throwIndex,
 	 * which is an int 0-14 corresponding to 6 choose 2 ways to throw 6 cards
@@ -243,9 +499,13 @@ public class CribbageState {
 	 * @return
 	 */
 	public Card[] getCardsThrownByIndex(int player, int throwIndex) {
-		return players[player].getCardsThrownBy(throwIndex);
+		long hand = hand(player);
+		Card[] result = new Card[2];
+		result[0] = card(slot(hand, THROW_FIRST[throwIndex]));
+		result[1] = card(slot(hand, THROW_SECOND[throwIndex]));
+		return result;
 	}
-	
+
 	/**
 	 * Returns an integer array with ints corresponding to every legal action for player to move
 	 * @return int[]
@@ -254,34 +514,212 @@ public class CribbageState {
 	public int[] getActions() throws Exception {
 		if (getWinner() != -1) {
 			throw new Exception("Game Over");
-		}	
-		int[] actions;
+		}
+		int[] actions = new int[Integer.bitCount(getActionMask())];
+		getActions(actions);
+		return actions;
+	}
+
+	/**
+	 * Writes every legal action for player to move into actions, in the same order as getActions(),
+	 * without allocating anything
+	 * @param actions buffer with room for every action (MAX_ACTIONS is always enough)
+	 * @return number of actions written, 0 if the game is over
+	 */
+	public int getActions(int[] actions) {
+		if (getWinner() != -1) {
+			return 0;
+		}
 		switch (stage) {
-		case DEAL:
-			//only one thing to do
-			actions = new int[1];
-			actions[0] = 0;
-			break;
 		case THROW:
 			//15 ways to throw 2 cards
-			actions = new int[15];
 			for (int i = 0; i < 15; i++) {
 				actions[i] = i;
 			}
-			break;
-		case CUT:
-			// only one legal action
-			actions = new int[1];
+			return 15;
+		case PLAY:
+			//indexes are position in Card[] of player hand (in increasing order, except that 0 is last)
+			long hand = hand(playerToMove);
+			long playable = playable(playerToMove);
+			int count = 0;
+			for (int i = 1; i < 6; i++) {
+				if ((playable & (1L << slot(hand, i))) != 0) {
+					actions[count++] = i;
+				}
+			}
+			if ((playable & (1L << slot(hand, 0))) != 0) {
+				actions[count++] = 0;
+			}
+			return count;
+		default:
+			//DEAL and CUT only have one thing to do
 			actions[0] = 0;
-			break;
+			return 1;
+		}
+	}
+
+	/**
+	 * Gets every legal action for player to move as a bitmask
+	 * @return bit a is set if action a is legal, 0 if the game is over
+	 */
+	public int getActionMask() {
+		if (getWinner() != -1) {
+			return 0;
+		}
+		switch (stage) {
+		case THROW:
+			return (1 << 15) - 1;
 		case PLAY:
-			//indexes are position in Card[] of player hand
-			actions = players[playerToMove].getPlayableCardIndexes(playCount);
-			break;
+			long hand = hand(playerToMove);
+			long playable = playable(playerToMove);
+			int mask = 0;
+			for (int i = 0; i < 6; i++) {
+				if ((playable & (1L << slot(hand, i))) != 0) {
+					mask |= 1 << i;
+				}
+			}
+			return mask;
 		default:
-			throw new Exception("Invalid stage");
+			return 1;
 		}
-		return actions;
+	}
+
+	/**
+	 * Is action a legal for the player to move?
+	 * Same as checking if a is in getActions(), without making the array.
+	 * @param a
+	 * @return false if the game is over
+	 */
+	public boolean isLegal(int a) {
+		if (getWinner() != -1) {
+			return false;
+		}
+		switch (stage) {
+		case DEAL:
+		case CUT:
+			return a == 0;
+		case THROW:
+			return a >= 0 && a < 15;
+		case PLAY:
+			return a >= 0 && a < 6 && (playable(playerToMove) & (1L << slot(hand(playerToMove), a))) != 0;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Writes every legal action for player to move into actions as card actions, which name the cards
+	 * instead of their places in the hand: the card id of the card played or cut, throwAction() of the two cards thrown,
+	 * or NO_CARD for the deal. Card actions mean the same thing in any state the cards are in,
+	 * e.g. in every determinization of a hand. They are in the same order as getActions().
+	 * @param actions buffer with room for every action (MAX_ACTIONS is always enough)
+	 * @return number of actions written, 0 if the game is over
+	 */
+	public int getCardActions(int[] actions) {
+		int count = getActions(actions);
+		for (int i = 0; i < count; i++) {
+			actions[i] = cardAction(actions[i]);
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the card action (see getCardActions()) for a legal action
+	 * @param a action, as from getActions()
+	 * @return card action
+	 */
+	public int cardAction(int a) {
+		switch (stage) {
+		case THROW:
+			long hand = hand(playerToMove);
+			return throwAction(slot(hand, THROW_FIRST[a]), slot(hand, THROW_SECOND[a]));
+		case CUT:
+			return deck.getCardId(deckCount);
+		case PLAY:
+			return slot(hand(playerToMove), a);
+		default:
+			return NO_CARD;
+		}
+	}
+
+	/**
+	 * Gets the action for a legal card action (see getCardActions())
+	 * @param c card action
+	 * @return action, as from getActions()
+	 */
+	public int indexAction(int c) {
+		switch (stage) {
+		case THROW:
+			int first = handIndex(playerToMove, throwFirst(c));
+			int second = handIndex(playerToMove, throwSecond(c));
+			int low = Math.min(first, second);
+			int high = Math.max(first, second);
+			//position of (low, high) in THROW_FIRST and THROW_SECOND
+			return low * (11 - low) / 2 + high - low - 1;
+		case PLAY:
+			return handIndex(playerToMove, c);
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Applies a card action (see getCardActions()) without checking it, like applyLegalAction()
+	 * @param c legal card action
+	 * @return winner after the action, or -1 if the game isn't over
+	 */
+	public int applyCardAction(int c) {
+		return applyLegalAction(indexAction(c));
+	}
+
+	/**
+	 * Gets the card action for throwing two cards, which doesn't depend on their order
+	 * @param a card id
+	 * @param b card id, not a
+	 * @return
+	 */
+	public static int throwAction(int a, int b) {
+		int low = Math.min(a, b);
+		int high = Math.max(a, b);
+		//pairs numbered in order of the higher card
+		return THROW_ACTIONS + high * (high - 1) / 2 + low;
+	}
+
+	/**
+	 * Is a card action a throw? (see throwAction())
+	 * @param c card action
+	 * @return
+	 */
+	public static boolean isThrowAction(int c) {
+		return c >= THROW_ACTIONS;
+	}
+
+	/**
+	 * Gets the lower card id of a throw card action
+	 * @param c card action from throwAction()
+	 * @return card id
+	 */
+	public static int throwFirst(int c) {
+		int high = throwSecond(c);
+		return c - THROW_ACTIONS - high * (high - 1) / 2;
+	}
+
+	/**
+	 * Gets the higher card id of a throw card action
+	 * @param c card action from throwAction()
+	 * @return card id
+	 */
+	public static int throwSecond(int c) {
+		int index = c - THROW_ACTIONS;
+		//largest high with high * (high - 1) / 2 <= index
+		int high = (int) ((1 + Math.sqrt(1 + 8.0 * index)) / 2);
+		if (high * (high - 1) / 2 > index) {
+			high--;
+		}
+		else if ((high + 1) * high / 2 <= index) {
+			high++;
+		}
+		return high;
 	}
 
 	/**
@@ -293,24 +731,36 @@ public class CribbageState {
 	public CribbageState applyAction(int a) throws Exception {
 		if (getWinner() != -1) {
 			throw new Exception("Game Over");
-		}	
-		int[] moves = getActions();
-		boolean illegal = true;
-		for (int i = 0; i < moves.length; i++) {
-			if (a == moves[i]) {
-				illegal = false;
-				break;
-			}
 		}
-		if (illegal) {
+		if (!isLegal(a)) {
 			throw new Exception("Illegal action: " + a);
 		}
-		
+		applyLegalAction(a);
+		return this;
+	}
+
+	/**
+	 * Applies an action without checking it, for playouts and searches that only use actions
+	 * from getActions(int[]) or getActionMask().
+	 * The result of applying an illegal action, or any action after the game is over, is undefined.
+	 * @param a legal action
+	 * @return winner after the action, or -1 if the game isn't over
+	 */
+	public int applyLegalAction(int a) {
+		if (stage == CribbageStage.DEAL) {
+			//a deal can't be undone, so there's no need to keep anything from the last hand
+			historySize = 0;
+		}
+		else {
+			pushHistory(a);
+		}
+
+		int other;
 		switch (stage) {
 		case DEAL:
 			newHand();
-			players[0].initHand(deck.draw(6));
-			players[1].initHand(deck.draw(6));
+			initHand(0, draw(6));
+			initHand(1, draw(6));
 			reportUpdate(CribbageEvent.DEAL, -1, 0);
 			playerToMove = (dealer + 1) % 2;
 			stage = CribbageStage.THROW;
@@ -321,9 +771,7 @@ public class CribbageState {
 			//expecting number between 0-14
 			//0 is 0th card and 1st card, 1 is 0th and 2nd card, 6 is 0th and 5th card,
 			//7 is 1st and 2nd card, etc.
-			Card[] cardsForCrib = players[playerToMove].throwCards(a);
-			crib[0 + 2 * playerToMove] = cardsForCrib[0];
-			crib[1 + 2 * playerToMove] = cardsForCrib[1];
+			throwCards(playerToMove, a);
 			reportUpdate(CribbageEvent.THROW, playerToMove, 0);
 			//non-dealer throws first, then dealer
 			//(really simultaneous, but done in order for convenience)
@@ -336,11 +784,9 @@ public class CribbageState {
 			}
 			break;
 		case CUT:
-			if (a != 0) {
-				throw new Exception("Illegal action");
-			}
-			cut = deck.draw();
-			if (cut.getRank() == 11) {
+			cut = drawCard();
+			hash ^= ZOBRIST[CUT_KEYS + cut];
+			if (Card.rank(cut) == 11) {
 				addPoints(dealer, 2);
 				reportUpdate(CribbageEvent.CUT, dealer, 2);
 			}
@@ -349,14 +795,20 @@ public class CribbageState {
 			}
 			playerToMove = (dealer + 1) % 2;
 			stage = CribbageStage.PLAY;
-			break;	
+			break;
 		case PLAY:
-			//starting with non-dealer, players alternate playing cards			
-			Card cardPlayed = players[playerToMove].play(a);
-			playCount += cribbageRank(cardPlayed);
-			cardsPlayed[numCardsPlayed++] = cardPlayed;
+			//starting with non-dealer, players alternate playing cards
+			int cardPlayed = play(playerToMove, a);
+			int rank = Card.rank(cardPlayed);
+			pairStreak = pairStreak(rank);
+			runRanks = runRanks(rank);
+			//found before the card is added to cardsPlayed
+			int run = pairStreak > 1 ? 0 : runPoints(rank, runRanks);
+			playCount += Card.value(cardPlayed);
+			hash ^= ZOBRIST[PLAYED_KEYS + 52 * (numCardsPlayed - playStart) + cardPlayed];
+			cardsPlayed |= (long) cardPlayed << (6 * numCardsPlayed++);
 			reportUpdate(CribbageEvent.PLAY, playerToMove, 0);
-			
+
 			if (playCount == 15) {
 				addPoints(playerToMove, 2);
 				reportUpdate(CribbageEvent.FIFTEEN, playerToMove, 2);
@@ -365,70 +817,66 @@ public class CribbageState {
 				addPoints(playerToMove, 2);
 				reportUpdate(CribbageEvent.THIRTYONE, playerToMove, 2);
 			}
-			
-			int run = checkPlayRuns();
+
 			if (run > 0) {
 				addPoints(playerToMove, run);
 				reportUpdate(CribbageEvent.RUN, playerToMove, run);
 			}
-			else {
-				int pair = checkPlayPairs();
-				if (pair > 0) {
-					addPoints(playerToMove, pair);
-					reportUpdate(CribbageEvent.PAIR, playerToMove, 2);
-				}
+			else if (pairStreak > 1) {
+				addPoints(playerToMove, PAIR_POINTS[pairStreak]);
+				reportUpdate(CribbageEvent.PAIR, playerToMove, 2);
 			}
-			
+
 			//next play... have to check if either player can play, if there's a go, point for last, etc.
-			
-			if (players[(playerToMove + 1) % 2].canPlay(playCount)) {
+			other = (playerToMove + 1) % 2;
+			if (canPlay(other, playCount)) {
 				//other player can play
-				playerToMove = (playerToMove + 1) % 2;
+				playerToMove = other;
 			}
-			else if (players[playerToMove].canPlay(playCount)) {
+			else if (canPlay(playerToMove, playCount)) {
 				//go, this player can keep playing
-				reportUpdate(CribbageEvent.GO, (playerToMove + 1) % 2, 0);
+				reportUpdate(CribbageEvent.GO, other, 0);
 			}
 			else {
-				if (playCount != 31 && !players[(playerToMove + 1) % 2].canPlay(playCount) && players[(playerToMove + 1) % 2].getHandNotPlayed().length > 0) {
-					reportUpdate(CribbageEvent.GO, (playerToMove + 1) % 2, 0);
+				if (playCount != 31 && !canPlay(other, playCount) && cardsToPlay(other) > 0) {
+					reportUpdate(CribbageEvent.GO, other, 0);
 				}
-				
+
 				//this round of play ended, award go point, reset, and switch player if possible
 				if (playCount != 31) {
 					addPoints(playerToMove, 1);
 					reportUpdate(CribbageEvent.LAST, playerToMove, 1);
 				}
 				resetPlay();
-				if (players[(playerToMove + 1) % 2].canPlay(playCount)) {
-					playerToMove = (playerToMove + 1) % 2;
+				if (canPlay(other, playCount)) {
+					playerToMove = other;
 				}
-				else if (players[playerToMove].canPlay(playCount)) {
+				else if (canPlay(playerToMove, playCount)) {
 					//this player starts new session
 				}
 				else {
 					//Play is over, count, change dealer, new hand if not winnner.
 					reportUpdate(CribbageEvent.SHOW, -1, 0);
-					
+
 					//non-dealer
 					int handScore;
-					handScore = countHand(players[(dealer + 1) % 2].getCurrentHand(), cut, false);
+					handScore = countHand(hand((dealer + 1) % 2), cut, false);
 					addPoints((dealer + 1) % 2, handScore);
 					reportUpdate(CribbageEvent.COUNT, (dealer + 1) % 2, handScore);
-					
+
 					//dealer
-					handScore = countHand(players[dealer].getCurrentHand(), cut, false);
+					handScore = countHand(hand(dealer), cut, false);
 					addPoints(dealer, handScore);
 					reportUpdate(CribbageEvent.COUNT, dealer, handScore);
-					
+
 					//crib
 					handScore = countHand(crib, cut, true);
 					addPoints(dealer, handScore);
 					reportUpdate(CribbageEvent.CRIB, dealer, handScore);
-					
+
 					//hand is over
 					handOver = true;
-					
+
 					if (getWinner() == -1) {
 						dealer = (dealer + 1) % 2;
 						stage = CribbageStage.DEAL;
@@ -441,707 +889,676 @@ public class CribbageState {
 				}
 			}
 			break;
+		}
+
+		return getWinner();
+	}
+
+	/**
+	 * Returns true if there is an action that can be undone with undoAction().
+	 * Every action since the last DEAL can be undone.
+	 * @return
+	 */
+	public boolean canUndo() {
+		return historySize > 0;
+	}
+
+	/**
+	 * Undoes the last action applied, restoring the state exactly as it was before it
+	 * (except that listeners are not told about it)
+	 * @return this state
+	 * @throws Exception if there is no action to undo
+	 */
+	public CribbageState undoAction() throws Exception {
+		if (historySize == 0) {
+			throw new Exception("No action to undo");
+		}
+		historySize -= FRAME_SIZE;
+		int f = historySize;
+
+		stage = STAGES[history[f]];
+		playerToMove = history[f + 1];
+		dealer = history[f + 2];
+		playCount = history[f + 3];
+		numCardsPlayed = history[f + 4];
+		playStart = history[f + 5];
+		score0 = history[f + 6];
+		score1 = history[f + 7];
+		handScore0 = history[f + 8];
+		handScore1 = history[f + 9];
+		handOver = history[f + 10] == 1;
+		int a = history[f + 11];
+		pairStreak = history[f + 14];
+		runRanks = history[f + 15];
+
+		switch (stage) {
+		case THROW:
+			unthrowCards(playerToMove, a, history[f + 12]);
+			break;
+		case CUT:
+			deckCount = history[f + 13];
+			cut = EMPTY;
+			break;
+		case PLAY:
+			unplay(playerToMove, a);
+			cardsPlayed &= ~(63L << (6 * numCardsPlayed));
+			break;
 		default:
 			throw new Exception("Invalid stage");
 		}
-			
+		//after unplay() and unthrowCards(), which change it
+		hash = ((long) history[f + 16] << 32) | (history[f + 17] & 0xffffffffL);
 		return this;
 	}
 
+	/**
+	 * Records what's needed to undo action a, before it's applied
+	 * @param a action
+	 */
+	private void pushHistory(int a) {
+		if (history == null) {
+			//at most 2 throws, the cut, and 8 cards played in a hand
+			history = new int[11 * FRAME_SIZE];
+		}
+		else if (historySize + FRAME_SIZE > history.length) {
+			history = Arrays.copyOf(history, history.length * 2);
+		}
+		int f = historySize;
+		history[f] = stage.ordinal();
+		history[f + 1] = playerToMove;
+		history[f + 2] = dealer;
+		history[f + 3] = playCount;
+		history[f + 4] = numCardsPlayed;
+		history[f + 5] = playStart;
+		history[f + 6] = score0;
+		history[f + 7] = score1;
+		history[f + 8] = handScore0;
+		history[f + 9] = handScore1;
+		history[f + 10] = handOver ? 1 : 0;
+		history[f + 11] = a;
+		history[f + 12] = playerToMove >= 0 ? throwIndex(playerToMove) : -1;
+		history[f + 13] = deckCount;
+		history[f + 14] = pairStreak;
+		history[f + 15] = runRanks;
+		history[f + 16] = (int) (hash >>> 32);
+		history[f + 17] = (int) hash;
+		historySize += FRAME_SIZE;
+	}
+
 	/**
 	 * Adds updateable object to list of objects that receive updates about points and other game events
 	 * @param updateable
 	 */
 	public void registerForUpdates(CribbageUpdateable updateable) {
+		if (toUpdate == null) {
+			toUpdate = new ArrayList<CribbageUpdateable>();
+		}
 		toUpdate.add(updateable);
 	}
-	
+
 	/**
 	 * randomizes cards not yet seen by player player
 	 * @param player integer either 0 or 1
 	 */
 	public void randomize(int player) {
-		int[] noShuffle;
-		int i;
-		Card[] newHand;
-		Card[] cardsForCrib;
+		randomize(player, FastRandom.current());
+	}
+
+	/**
+	 * randomizes cards not yet seen by player player
+	 * Only the cards player hasn't seen are changed (the other player's cards that haven't been played,
+	 * and the cut if it hasn't happened yet), each drawn at random from the cards player hasn't seen.
+	 * @param player integer either 0 or 1
+	 * @param rand random number generator to draw cards with
+	 */
+	public void randomize(int player, Random rand) {
+		int other = (player + 1) % 2;
+		ownDeck();
+		if (stage == CribbageStage.DEAL) {
+			deck.shuffle(rand);
+			deckCount = 0;
+			return;
+		}
+
+		//player 0 has cards 0-5 in deck. player 1 has cards 6-11. The cut is card 12.
+		long unseen = getUnseenMask(player);
+		int otherPlayed = playedSlots(other);
+		for (int i = 0; i < 6; i++) {
+			if ((otherPlayed & (1 << i)) == 0) {
+				unseen = drawUnseen(unseen, i + 6 * other, rand);
+			}
+		}
+		if (cut == EMPTY) {
+			drawUnseen(unseen, 12, rand);
+		}
+
 		switch (stage) {
-		case DEAL:
-			deck.shuffle();
-			break;
 		case THROW:
-			//player 0 has cards 0-5 in deck. player 1 has cards 6-11.
-			noShuffle = new int[6];
-			i = 0 + 6 * player;
-			for (int j = 0; j < 6; j++) {
-				noShuffle[j] = i++;
-			}
-			deck.partialShuffle(noShuffle);
-			
 			//deal new 6 cards to other player
-			i = 0 + 6 * ((player + 1) % 2);
-			newHand = new Card[6];
-			for (int j = 0; j < 6; j++) {
-				newHand[j] = deck.getCard(i++);
-			}
-			players[(player + 1) % 2].initHand(newHand);
-			
+			initHand(other, handFromDeck(other));
+
 			//handle cards in crib
 			//if other player has already thrown, this is assuming a random throw
 			//(i.e. not weighing by what other player likely would have thrown)
 			if (playerToMove == dealer && player == playerToMove) {
 				//other player has already thrown, need to update cards in crib
 				//throw any 2 cards
-				cardsForCrib = players[(player + 1) % 2].throwCards(0);
-				crib[0 + 2 * ((player + 1) % 2)] = cardsForCrib[0];
-				crib[1 + 2 * ((player + 1) % 2)] = cardsForCrib[1];
+				throwCards(other, 0);
 			}
 			break;
 		case CUT:
-			//player 0 has cards 0-5 in deck. player 1 has cards 6-11.
-			noShuffle = new int[6];
-			i = 0 + 6 * player;
-			for (int j = 0; j < 6; j++) {
-				noShuffle[j] = i++;
-			}
-			deck.partialShuffle(noShuffle);
-			
 			//deal new 6 cards to other player
-			i = 0 + 6 * ((player + 1) % 2);
-			newHand = new Card[6];
-			for (int j = 0; j < 6; j++) {
-				newHand[j] = deck.getCard(i++);
-			}
-			players[(player + 1) % 2].initHand(newHand);
-			
+			initHand(other, handFromDeck(other));
+
 			//handle cards in crib
 			//make random throw for other player
 			//(i.e. not weighing by what other player likely would have thrown)
-			cardsForCrib = players[(player + 1) % 2].throwCards(0);
-			crib[0 + 2 * ((player + 1) % 2)] = cardsForCrib[0];
-			crib[1 + 2 * ((player + 1) % 2)] = cardsForCrib[1];
+			throwCards(other, 0);
 			break;
 		case PLAY:
-			//if opponent has played, need to not shuffle those cards
-			boolean oppPlayed = true;
-			int[] oppPlayedCardIndexes = new int[0];
-			try {
-				oppPlayedCardIndexes = players[(player + 1) % 2].getPlayedCardIndexes();
-			}
-			catch (Exception e) {
-				oppPlayed = false;
-			}
-			
-			if (oppPlayed) {
-				noShuffle = new int[7 + oppPlayedCardIndexes.length];
-				
-				//player's cards
-				i = 0 + 6 * player;
-				for (int j = 0; j < 6; j++) {
-					noShuffle[j] = i++;
-				}
-				
-				//cut card
-				noShuffle[6] = 12; //index of cut card in the deck
-				
-				//opponent's cards
-				i = 7;
-				for (int j = 0; j < oppPlayedCardIndexes.length; j++) {
-					noShuffle[i++] = oppPlayedCardIndexes[j] + 6 * ((player + 1) % 2);
-				}
-				
-				deck.partialShuffle(noShuffle);
-				
-				//deal new 6 cards to other player
-				i = 0 + 6 * ((player + 1) % 2);
-				newHand = new Card[6];
-				for (int j = 0; j < 6; j++) {
-					newHand[j] = deck.getCard(i++);
-				}
-				int throwIndex = players[(player + 1) % 2].getThrowIndex(); 
-				players[(player + 1) % 2].initHand(newHand);
-				
-				//throw same cards (that we haven't seen)
-				cardsForCrib = players[(player + 1) % 2].throwCards(throwIndex);
-				crib[0 + 2 * ((player + 1) % 2)] = cardsForCrib[0];
-				crib[1 + 2 * ((player + 1) % 2)] = cardsForCrib[1];
-				
-				//play cards already played
-				for (int j = 0; j < oppPlayedCardIndexes.length; j++) {
-					players[(player + 1) % 2].play(oppPlayedCardIndexes[j]);
-				}
-			}
-			else {
-				noShuffle = new int[7];
-				
-				//player's cards
-				i = 0 + 6 * player;
-				for (int j = 0; j < 6; j++) {
-					noShuffle[j] = i++;
-				}
-				
-				//cut card
-				noShuffle[6] = 12; //index of cut card in the deck
-				
-				deck.partialShuffle(noShuffle);
-				
-				//deal new 6 cards to other player
-				i = 0 + 6 * ((player + 1) % 2);
-				newHand = new Card[6];
-				for (int j = 0; j < 6; j++) {
-					newHand[j] = deck.getCard(i++);
+			//deal new 6 cards to other player
+			int throwIndex = throwIndex(other);
+			initHand(other, handFromDeck(other));
+
+			//throw same cards (that we haven't seen)
+			throwCards(other, throwIndex);
+
+			//play cards already played, which weren't changed
+			for (int i = 0; i < 6; i++) {
+				if ((otherPlayed & (1 << i)) != 0) {
+					play(other, i);
 				}
-				int throwIndex = players[(player + 1) % 2].getThrowIndex(); 
-				players[(player + 1) % 2].initHand(newHand);
-				
-				//throw same cards (that we haven't seen)
-				cardsForCrib = players[(player + 1) % 2].throwCards(throwIndex);
-				crib[0 + 2 * ((player + 1) % 2)] = cardsForCrib[0];
-				crib[1 + 2 * ((player + 1) % 2)] = cardsForCrib[1];
 			}
 			break;
 		default:
 			break;
-			
+
 		}
 	}
 
-	
+	/**
+	 * Gets the cards that player hasn't seen in this hand: everything but player's own 6 cards,
+	 * the cut, and cards played by the other player
+	 * @param player
+	 * @return card mask
+	 */
+	public long getUnseenMask(int player) {
+		long seen = handCards(hand(player)) | cribCards(player);
+		long otherHand = handCards(hand((player + 1) % 2));
+		seen |= otherHand & ~inHand((player + 1) % 2);
+		if (cut != EMPTY) {
+			seen |= 1L << cut;
+		}
+		return Card.ALL & ~seen;
+	}
+
+	/**
+	 * Puts a random card from unseen at index in the deck
+	 * @param unseen card mask
+	 * @param index
+	 * @param rand
+	 * @return unseen without the card drawn
+	 */
+	private long drawUnseen(long unseen, int index, Random rand) {
+		int id = Card.nthCard(unseen, rand.nextInt(Long.bitCount(unseen)));
+		deck.moveCard(id, index);
+		return unseen & ~(1L << id);
+	}
+
 	private void addPoints(int player, int points) {
-		players[player].addPoints(points);
+		if (player == 0) {
+			score0 += points;
+			handScore0 += points;
+		}
+		else {
+			score1 += points;
+			handScore1 += points;
+		}
 		if (getWinner() != -1) {
 			handOver = true;
 		}
 	}
-	
+
 	/**
 	 * Counts a hand according to Cribbage rules
-	 * @param hand Card[]
-	 * @param cut Card
+	 * @param hand card ids, 6 bits each; the first 4 that aren't EMPTY are counted
+	 * @param cut card id
 	 * @param crib boolean is this hand a crib (affects flush)
 	 * @return
 	 */
-	private int countHand(Card[] hand, Card cut, boolean crib) {
-		Card[] fullHand;
-		fullHand = new Card[5];
-		for (int i = 0; i < 4; i++) {
-			fullHand[i] = hand[i];
-		}
-		fullHand[4] = cut;
-		int points = 0;
-		
-		//runs - if a 5 card run is present no other runs exist.
-		//If a 4 card run is present there are no 3 card runs.
-		boolean foundRun5 = false;
-		boolean foundRun4 = false;
-		int[] runTest = new int[5];
-		
-		//5 card 15 or run
-		int temp = 0;
-		for (int i = 0; i < 5; i++) {
-			temp += cribbageRank(fullHand[i]);
-			runTest[i] = fullHand[i].getRank();
-		}
-		if (temp == 15) {
-			points +=2;
-		}
-		Arrays.sort(runTest);
-		boolean run5 = true;
-		for (int i = 1; i < 5; i++) {
-			if (runTest[i] != runTest[i-1]) {
-				run5 = false;
-			}
-		}
-		if (run5) {
-			foundRun5 = true;
-			points += 5;
-		}
-		
-		//check 4 card combos for 15
-		boolean run4 = true;
-		for (int i = 0; i < 5; i++) {
-			int temp4 = 0;
-			if (!foundRun5) {
-				runTest = new int[5];
-				runTest[i] = -1;
-				run4 = true;
-			}
-			for (int k = 0; k < 5; k++) {
-				if (k != i) {
-					temp4 += cribbageRank(fullHand[k]);
-					if (!foundRun5) {
-						runTest[k] = fullHand[k].getRank();
-					}
-				}
-			}
-			if (temp4 == 15) {
-				points += 2;
-			}
-			if (!foundRun5) {
-				Arrays.sort(runTest);
-				for (int j = 2; j < 5; j++) {
-					if (runTest[j] != runTest[j-1]) {
-						run4 = false;
-					}
-				}
-				if (run4) {
-					foundRun4 = true;
-					points += 4;
-				}
-			}
-		}
-		
-		//check 3 card combos for 15
-		for (int i = 0; i < 3; i++) {
-			for (int j = i + 1; j < 4; j++) {
-				for (int k = j + 1; k < 5; k++) {
-					if (cribbageRank(fullHand[i]) + cribbageRank(fullHand[j]) + cribbageRank(fullHand[k]) == 15) {
-						points += 2;
-					}
-					if (!(foundRun4 || foundRun5)) {
-						int[] run3 = new int[3];
-						run3[0] = fullHand[i].getRank();
-						run3[1] = fullHand[j].getRank();
-						run3[2] = fullHand[k].getRank();
-						Arrays.sort(run3);
-						if (run3[0] + 1 == run3[1] && run3[1] + 1 == run3[2]) {
-							points += 3;
-						}
-					}
-				}
-			}
-		}
-		
-		//check each 2-combination of cards for 15, pairs
-		for (int i = 0; i < 4; i++) {
-			for (int j = i + 1; j < 5; j++) {
-				//check two card combos for 15, pair
-				if (cribbageRank(fullHand[i]) + cribbageRank(fullHand[j]) == 15) {
-					points += 2;
-				}
-				if (fullHand[i].pair(fullHand[j])) {
-					points += 2;
-				}
-			}
-		}		
-		
-		//flush
-		boolean flush = true;
-		for (int i = 1; i < 4; i++) {
-			if (!fullHand[i].flush(fullHand[i-1])) {
-				flush = false;
+	private int countHand(long hand, int cut, boolean crib) {
+		//move the 4 cards to the first 4 slots
+		long cards = 0;
+		int count = 0;
+		for (int i = 0; i < 6 && count < 4; i++) {
+			if (slot(hand, i) != EMPTY) {
+				cards |= (long) slot(hand, i) << (6 * count++);
 			}
 		}
-		if (flush) {
-			if (fullHand[3].flush(fullHand[4])) {
-				points += 5;
-			}
-			else if (!crib) {
-				points += 4;
-			}
-		}
-		
-		//his nob
-		for (int i = 0; i < 4; i++) {
-			if (hand[i].getRank() == 11 && hand[i].getSuit() == cut.getSuit()) {
-				points += 1;
-			}
-		}
-		
-		return points;
+		return CribbageScoring.countHand(slot(cards, 0), slot(cards, 1), slot(cards, 2), slot(cards, 3), cut, crib);
 	}
 
 	/**
 	 * Resets some things for a new hand
 	 */
 	private void newHand() {
+		numCardsPlayed = 0;
+		cardsPlayed = 0;
 		resetPlay();
-		cut = null;
-		crib = new Card[4];
+		//hands are replaced in initHand(), and the cards played were taken out of the hash in resetPlay()
+		if (cut != EMPTY) {
+			hash ^= ZOBRIST[CUT_KEYS + cut];
+		}
+		for (int i = 0; i < 4; i++) {
+			if (slot(crib, i) != EMPTY) {
+				hash ^= ZOBRIST[CRIB_KEYS + slot(crib, i)];
+			}
+		}
+		cut = EMPTY;
+		crib = EMPTY_CRIB;
+		ownDeck();
 		deck.shuffle();
+		deckCount = 0;
 	}
-	
+
 	/**
 	 * resets some things for new hand or after a "Go"
 	 */
 	private void resetPlay() {
+		for (int i = playStart; i < numCardsPlayed; i++) {
+			hash ^= ZOBRIST[PLAYED_KEYS + 52 * (i - playStart) + slot(cardsPlayed, i)];
+		}
 		playCount = 0;
-		cardsPlayed = new Card[8];
-		numCardsPlayed = 0;
+		playStart = numCardsPlayed;
+		pairStreak = 0;
+		runRanks = 0;
 	}
-	
+
 	/**
-	 * Returns point value of largest run achieved by latest play
+	 * Gets pairStreak after playing a card of rank rank
+	 * @param rank
 	 * @return
 	 */
-	private int checkPlayRuns() {
-		int bestRun = 0;
-		for (int i = 3; i <= numCardsPlayed; i++) {
-			int[] run = new int[i];
-			for (int j = numCardsPlayed - 1; j >= numCardsPlayed - i; j--) {
-				run[numCardsPlayed - 1 - j] = cardsPlayed[j].getRank();
-			}
-			Arrays.sort(run);
-			boolean foundRun = true;
-			for (int j = 1; j < run.length; j++) {
-				if (run[j] - run[j-1] != 1) {
-					foundRun = false;
-					break;
-				}
-			}
-			if (foundRun) {
-				bestRun = i;
-			}
+	private int pairStreak(int rank) {
+		if (pairStreak > 0 && Card.rank(slot(cardsPlayed, numCardsPlayed - 1)) == rank) {
+			return pairStreak + 1;
 		}
-		return bestRun;
+		return 1;
 	}
-	
+
 	/**
-	 * Returns points earned by latest play if there is a pair, 3-of-a-kind, etc.
+	 * Gets runRanks after playing a card of rank rank
+	 * @param rank
 	 * @return
 	 */
-	private int checkPlayPairs() {
-		int highestPair = 0;
-		
-		for (int i = numCardsPlayed - 2; i >= numCardsPlayed -4 && i >= 0; i--) {
-			if (cardsPlayed[i + 1].getRank() == cardsPlayed[i].getRank()) {
-				highestPair++;
-			}
-			else {
-				break;
-			}
+	private int runRanks(int rank) {
+		if ((runRanks & (1 << rank)) == 0) {
+			return runRanks | (1 << rank);
 		}
-		switch(highestPair) {
-			case 0:
-				return 0;
-			case 1:
-				return 2;
-			case 2:
-				return 6;
-			case 3:
-				return 12;
-			default:
-				return 0;
+		//repeated rank: only the cards since it was last played are left
+		int ranks = 1 << rank;
+		for (int i = numCardsPlayed - 1; Card.rank(slot(cardsPlayed, i)) != rank; i--) {
+			ranks |= 1 << Card.rank(slot(cardsPlayed, i));
 		}
+		return ranks;
 	}
-	
-	private int cribbageRank(Card c) {
-		if(c.getRank() >= 10) {
-			return 10;
+
+	/**
+	 * Returns point value of largest run made by playing a card of rank rank,
+	 * before it is added to cardsPlayed
+	 * @param rank
+	 * @param ranks runRanks after the card is played
+	 * @return
+	 */
+	private int runPoints(int rank, int ranks) {
+		//size of the block of consecutive ranks in ranks containing rank (bit 0 is never set)
+		int block = Integer.numberOfTrailingZeros(~(ranks >>> rank)) + Integer.numberOfLeadingZeros(~ranks << (32 - rank));
+		if (block < 3) {
+			return 0;
 		}
-		else {
-			return c.getRank();
+		int length = Integer.bitCount(ranks);
+		if (block == length) {
+			return length;
+		}
+		//the ranks are mixed with others, so grow the run back from the card, as long as the ranks fit in a run
+		int bestRun = 0;
+		int min = rank;
+		int max = rank;
+		for (int n = 2; n <= length; n++) {
+			int r = Card.rank(slot(cardsPlayed, numCardsPlayed + 1 - n));
+			min = Math.min(min, r);
+			max = Math.max(max, r);
+			if (n >= 3 && max - min == n - 1) {
+				bestRun = n;
+			}
 		}
+		return bestRun;
 	}
 
 	private void reportUpdate(CribbageEvent type, int player, int points) {
+		if (toUpdate == null) {
+			return;
+		}
 		for (CribbageUpdateable updateable : toUpdate) {
 			updateable.receiveUpdate(type, player, points);
 		}
 	}
-	
+
 	/**
-	 * Represents a Cribbage player's hand, score, etc.
-	 *
+	 * Makes sure the deck isn't shared with a copy of this state before it's changed
 	 */
-	private class Player {
-		private Card[] hand;
-		private boolean[] played;
-		private int score;
-		private int handScore;
-		int cardsToPlay; //number of cards left for play
-		boolean thrown;
-		int throwIndex;
-		
-		/**
-		 * Creates Player object ready for new game
-		 */
-		public Player() {
-			this.score = 0;
-		}
-		
-		/**
-		 * Copy constructor
-		 * @param source
-		 */
-		public Player(Player source) {
-			this.score = source.score;
-			this.cardsToPlay = source.cardsToPlay;
-			this.thrown = source.thrown;
-			this.throwIndex = source.throwIndex;
-			
-			if (source.played == null) {
-				this.played = null;
-			}
-			else {
-				this.played = new boolean[source.played.length];
-				for (int i = 0; i < source.played.length; i++) {
-					this.played[i] = source.played[i];
-				}
-			}
-			
-			if (source.hand == null) {
-				this.hand = null;
-			}
-			else {
-				this.hand = new Card[source.hand.length];
-				for (int i = 0; i < source.hand.length; i++) {
-					this.hand[i] = source.hand[i];
-				}
-			}
+	private void ownDeck() {
+		if (deckShared) {
+			deck = new Deck(deck);
+			deckShared = false;
 		}
-		
-		/**
-		 * Prepare player for new hand
-		 * @param hand
-		 */
-		public void initHand(Card[] hand) {
-			this.hand = hand;
-			played = new boolean[6];
-			cardsToPlay = 6;
-			thrown = false;
-			throwIndex = -1;
-			handScore = 0;
-		}
-		
-		/**
-		 * Removes two cards from hand according to counting system
-		 * Cards: 0, 1, 2, 3, 4, 5
-		 * index: 	0->0,1	1->0,2	2->0,3	 3->0,4	 4->0,5
-		 * 					5->1,2	6->1,3	 7->1,4	 8->1,5
-		 * 							9->2,3	10->2,4	11->2,5
-		 * 									12->3,4	13->3,5
-		 * 											14->4,5
-		 * @param cards
-		 * @return
-		 */
-		public Card[] throwCards(int cards) {
-			throwIndex = cards;
-			Card[] cribCards = new Card[2]; 
-			if (cards < 5) {
-				cribCards[0] = remove(0);
-				cribCards[1] = remove(cards + 1);
-			}
-			else if (cards < 9) {
-				cribCards[0] = remove(1);
-				cribCards[1] = remove(cards - 3);
-			}
-			else if (cards < 12) {
-				cribCards[0] = remove(2);
-				cribCards[1] = remove(cards - 6);
-			}
-			else if (cards < 14) {
-				cribCards[0] = remove(3);
-				cribCards[1] = remove(cards - 8);
-			}
-			else {
-				cribCards[0] = remove(4);
-				cribCards[1] = remove(5);
-			}
-			thrown = true;
-			return cribCards;
-		}
-		
-		/**
-		 * Find out which Cards would be thrown by a throwIndex (see throwCards())
-		 * @param throwIndex
-		 * @return
-		 */
-		public Card[] getCardsThrownBy(int throwIndex) {
-			Card[] result = new Card[2];
-			if (throwIndex < 5) {
-				result[0] = hand[0];
-				result[1] = hand[throwIndex + 1];
-			}
-			else if (throwIndex < 9) {
-				result[0] = hand[1];
-				result[1] = hand[throwIndex - 3];
-			}
-			else if (throwIndex < 12) {
-				result[0] = hand[2];
-				result[1] = hand[throwIndex - 6];
-			}
-			else if (throwIndex < 14) {
-				result[0] = hand[3];
-				result[1] = hand[throwIndex - 8];
-			}
-			else {
-				result[0] = hand[4];
-				result[1] = hand[5];
-			}
-			return result;
-		}
-		
-		/**
-		 * Returns index of action that threw cards for this player earlier in hand.
-		 * @return int between 0-14
-		 */
-		public int getThrowIndex() {
-			return throwIndex;
-		}
-		
-		/**
-		 * Determines if the player has any unplayed cards that can be played given current count
-		 * @param playCount
-		 * @return
-		 */
-		public boolean canPlay(int playCount) {
-			boolean result = false;
-			for (int i = 0; i < hand.length; i++) {
-				if (!played[i] && hand[i].getRank() + playCount <= 31) {
-					result = true;
-				}
-			}
-			return result;
-		}
-		
-		/**
-		 * Marks card indicated by index card as played
-		 * @param card
-		 * @return
-		 */
-		public Card play(int card) {
-			Card playedCard = hand[card];
-			played[card] = true;
-			cardsToPlay--;
-			return playedCard;
-		}
-		
-		/**
-		 * Gets a list of indexes of playable cards in hand given playCount
-		 * The indexes are from 0-5, representing the original 6 card hand
-		 * @param playCount
-		 * @return
-		 */
-		public int[] getPlayableCardIndexes(int playCount) {
-			int[] playable = new int[cardsToPlay];
-			int count = 0;
-			for (int i = 0; i < 6; i++) {
-				if (!played[i] && cribbageRank(hand[i]) + playCount <= 31) {
-					playable[count++] = i;
-				}
-			}
-			int[] legal = new int[count];
-			int count2 = 0;
-			for (int i = 0; i < count; i++) {
-				if (playable[i] != 0) {
-					legal[count2++] = playable[i];
-				}
-			}
-			return legal;
-		}
-		
-		/**
-		 * Gets indexes of cards in player's hand that have been revealed/played
-		 * @return int[] of size 1-3 with numbers in range 0-5
-		 * @throws Exception if no cards have been revealed yet
-		 */
-		public int[] getPlayedCardIndexes() throws Exception {
-			if (cardsToPlay >= 4) {
-				throw new Exception("no cards revealed yet");
-			}
-			int[] playedIndexes = new int[4 - cardsToPlay];
-			int j = 0;
-			for (int i = 0; i < 6; i++) {
-				if (hand[i] != null && played[i]) {
-					playedIndexes[j++] = i;
-				}
-			}
-			return playedIndexes;
-		}
-		
-		/**
-		 * Gets array of booleans indicating if a card has been played yet (true)
-		 * @return
-		 */
-		public boolean[] getPlayed() {
-			return played;
-		}
-		
-		/**
-		 * Gets player's score
-		 * @return
-		 */
-		public int getScore() {
-			return score;
-		}
-		
-		/**
-		 * Gets player's score earned for this hand only
-		 * @return
-		 */
-		public int getHandScore() {
-			return handScore;
-		}
-		
-		/**
-		 * Adds points to player's score
-		 * @param points
-		 */
-		public void addPoints(int points) {
-			score += points;
-			handScore += points;
-		}
-		
-		/**
-		 * Gets all 6 cards of hand or 4 if THROW has happened.
-		 * Won't give anything useful if no hand dealt.
-		 * @return
-		 */
-		public Card[] getCurrentHand() {
-			if (thrown) {
-				Card[] inHand = new Card[4];
-				int count = 0;
-				for (int i = 0; i < 6; i++) {
-					if (hand[i] != null) {
-						inHand[count++] = hand[i];
-					}
-				}
-				return inHand;
+	}
+
+	/**
+	 * Draws the next card from the deck (without changing the deck, which may be shared)
+	 * At most 13 cards are drawn in a hand, so the deck can't run out.
+	 * @return card id
+	 */
+	private int drawCard() {
+		return deck.getCardId(deckCount++);
+	}
+
+	/**
+	 * Draws the next n cards from the deck
+	 * @param n
+	 * @return card ids, 6 bits each
+	 */
+	private long draw(int n) {
+		long cards = 0;
+		for (int i = 0; i < n; i++) {
+			cards |= (long) drawCard() << (6 * i);
+		}
+		return cards;
+	}
+
+	/**
+	 * Gets the 6 cards in the part of the deck where player's hand is dealt
+	 * @param player
+	 * @return card ids, 6 bits each
+	 */
+	private long handFromDeck(int player) {
+		long cards = 0;
+		for (int i = 0; i < 6; i++) {
+			cards |= (long) deck.getCardId(i + 6 * player) << (6 * i);
+		}
+		return cards;
+	}
+
+	//player information
+
+	private long hand(int player) {
+		return player == 0 ? hand0 : hand1;
+	}
+
+	/**
+	 * Gets the cards player has not thrown or played
+	 * @param player
+	 * @return card mask
+	 */
+	private long inHand(int player) {
+		return player == 0 ? inHand0 : inHand1;
+	}
+
+	/**
+	 * Returns index of action that threw cards for this player earlier in hand.
+	 * @param player
+	 * @return int between 0-14, or -1 if not thrown yet
+	 */
+	private int throwIndex(int player) {
+		return player == 0 ? throwIndex0 : throwIndex1;
+	}
+
+	/**
+	 * Gets the index in player's hand of a card
+	 * @param player
+	 * @param id card id
+	 * @return 0-5, or -1 if the card isn't in the hand
+	 */
+	private int handIndex(int player, int id) {
+		long hand = hand(player);
+		for (int i = 0; i < 6; i++) {
+			if (slot(hand, i) == id) {
+				return i;
 			}
-			else {
-				return hand;
+		}
+		return -1;
+	}
+
+	/**
+	 * Number of cards left for play
+	 * @param player
+	 * @return
+	 */
+	private int cardsToPlay(int player) {
+		return Long.bitCount(inHand(player));
+	}
+
+	private void setPlayer(int player, long hand, long inHand, int throwIndex) {
+		hash ^= keys(HAND_KEYS + 52 * player, handCards(hand(player)) ^ handCards(hand));
+		hash ^= keys(IN_HAND_KEYS + 52 * player, inHand(player) ^ inHand);
+		if (player == 0) {
+			hand0 = hand;
+			inHand0 = inHand;
+			throwIndex0 = throwIndex;
+		}
+		else {
+			hand1 = hand;
+			inHand1 = inHand;
+			throwIndex1 = throwIndex;
+		}
+	}
+
+	/**
+	 * Prepare player for new hand
+	 * @param player
+	 * @param hand
+	 */
+	private void initHand(int player, long hand) {
+		long inHand = 0;
+		for (int i = 0; i < 6; i++) {
+			inHand |= 1L << slot(hand, i);
+		}
+		setPlayer(player, hand, inHand, -1);
+		if (player == 0) {
+			handScore0 = 0;
+		}
+		else {
+			handScore1 = 0;
+		}
+	}
+
+	/**
+	 * Removes two cards from player's hand according to counting system, and puts them in the crib
+	 * Cards: 0, 1, 2, 3, 4, 5
+	 * index: 	0->0,1	1->0,2	2->0,3	 3->0,4	 4->0,5
+	 * 					5->1,2	6->1,3	 7->1,4	 8->1,5
+	 * 							9->2,3	10->2,4	11->2,5
+	 * 									12->3,4	13->3,5
+	 * 											14->4,5
+	 * @param player
+	 * @param cards
+	 */
+	private void throwCards(int player, int cards) {
+		int first = THROW_FIRST[cards];
+		int second = THROW_SECOND[cards];
+		long hand = hand(player);
+		long thrown = (1L << slot(hand, first)) | (1L << slot(hand, second));
+		hash ^= keys(CRIB_KEYS, cribCards(player) ^ thrown);
+		crib &= ~(0xfff << (12 * player));
+		crib |= ((slot(hand, second) << 6) | slot(hand, first)) << (12 * player);
+		hand |= (63L << (6 * first)) | (63L << (6 * second));
+		setPlayer(player, hand, inHand(player) & ~thrown, cards);
+	}
+
+	/**
+	 * Puts back two cards removed by throwCards(player, cards)
+	 * @param player
+	 * @param cards throwIndex that removed them
+	 * @param previousThrowIndex throwIndex to restore
+	 */
+	private void unthrowCards(int player, int cards, int previousThrowIndex) {
+		int first = THROW_FIRST[cards];
+		int second = THROW_SECOND[cards];
+		long hand = hand(player);
+		hand &= ~((63L << (6 * first)) | (63L << (6 * second)));
+		hand |= (long) slot(crib, 2 * player) << (6 * first);
+		hand |= (long) slot(crib, 2 * player + 1) << (6 * second);
+		long thrown = cribCards(player);
+		hash ^= keys(CRIB_KEYS, thrown);
+		crib |= 0xfff << (12 * player);
+		setPlayer(player, hand, inHand(player) | thrown, previousThrowIndex);
+	}
+
+	/**
+	 * Marks card indicated by index card as played
+	 * @param player
+	 * @param card
+	 * @return card id
+	 */
+	private int play(int player, int card) {
+		int id = slot(hand(player), card);
+		setPlayer(player, hand(player), inHand(player) & ~(1L << id), throwIndex(player));
+		return id;
+	}
+
+	/**
+	 * Marks card indicated by index card as not played, undoing play(player, card)
+	 * @param player
+	 * @param card
+	 */
+	private void unplay(int player, int card) {
+		setPlayer(player, hand(player), inHand(player) | (1L << slot(hand(player), card)), throwIndex(player));
+	}
+
+	/**
+	 * Determines if the player has any unplayed cards that can be played given current count
+	 * @param player
+	 * @param playCount
+	 * @return
+	 */
+	private boolean canPlay(int player, int playCount) {
+		//by rank, not value (so face cards count as 11-13 here)
+		return (inHand(player) & Card.ranksUpTo(31 - playCount)) != 0;
+	}
+
+	/**
+	 * Gets the cards player can play without going over 31
+	 * @param player
+	 * @return card mask
+	 */
+	private long playable(int player) {
+		return inHand(player) & Card.valuesUpTo(31 - playCount);
+	}
+
+	/**
+	 * Gets the slots of player's hand that have been played (not counting thrown cards)
+	 * @param player
+	 * @return bit i set if slot i has been played
+	 */
+	private int playedSlots(int player) {
+		long hand = hand(player);
+		long mask = inHand(player);
+		int played = 0;
+		for (int i = 0; i < 6; i++) {
+			if (slot(hand, i) != EMPTY && (mask & (1L << slot(hand, i))) == 0) {
+				played |= 1 << i;
 			}
 		}
-		
-		/**
-		 * Gets full 6 card hand with null for cards that have been thrown.
-		 * @return
-		 */
-		public Card[] getFullHand() {
-			return hand;
-		}
-		
-		/**
-		 * Gets cards in player's hand that haven't been played yet.
-		 * @return
-		 */
-		public Card[] getHandNotPlayed() {
-			Card[] inHand = new Card[cardsToPlay];
-			int count = 0;
-			for (int i = 0; i < 6; i++) {
-				if (!played[i]) {
-					inHand[count++] = hand[i];
-				}
+		return played;
+	}
+
+	/**
+	 * Gets indexes of cards in player's hand that have been revealed/played
+	 * @param player
+	 * @return int[] with numbers in range 0-5, empty if none played
+	 */
+	private int[] playedIndexes(int player) {
+		long hand = hand(player);
+		long mask = inHand(player);
+		int[] playedIndexes = new int[Math.max(4 - cardsToPlay(player), 0)];
+		int j = 0;
+		for (int i = 0; i < 6; i++) {
+			if (slot(hand, i) != EMPTY && (mask & (1L << slot(hand, i))) == 0) {
+				playedIndexes[j++] = i;
 			}
-			return inHand;
 		}
-		
-		
-		/**
-		 * Removes a card from hand (sets it to null), marks card as played
-		 * @param card
-		 * @return Card
-		 */
-		private Card remove(int card) {
-			Card removedCard = hand[card];
-			hand[card] = null;
-			played[card] = true;
-			cardsToPlay--;
-			return removedCard;
+		return playedIndexes;
+	}
+
+	//cards
+
+	/**
+	 * Gets the card id at position i of some packed card ids
+	 * @param cards card ids, 6 bits each
+	 * @param i
+	 * @return
+	 */
+	private static int slot(long cards, int i) {
+		return (int) (cards >>> (6 * i)) & 63;
+	}
+
+	/**
+	 * Gets the card mask of the card ids in a hand, ignoring EMPTY slots
+	 * @param hand card ids, 6 bits each
+	 * @return
+	 */
+	private static long handCards(long hand) {
+		long mask = 0;
+		for (int i = 0; i < 6; i++) {
+			mask |= 1L << slot(hand, i);
+		}
+		//EMPTY is 63, the top bit
+		return mask & Card.ALL;
+	}
+
+	/**
+	 * Gets the cards player has thrown into the crib
+	 * @param player
+	 * @return card mask, 0 if not thrown yet
+	 */
+	private long cribCards(int player) {
+		return ((1L << slot(crib, 2 * player)) | (1L << slot(crib, 2 * player + 1))) & Card.ALL;
+	}
+
+	/**
+	 * Combines the Zobrist keys of a set of cards
+	 * @param offset where the keys for the cards' place start in ZOBRIST
+	 * @param cards card mask
+	 * @return
+	 */
+	private static long keys(int offset, long cards) {
+		long keys = 0;
+		for (long rest = cards; rest != 0; rest &= rest - 1) {
+			keys ^= ZOBRIST[offset + Long.numberOfTrailingZeros(rest)];
+		}
+		return keys;
+	}
+
+	/**
+	 * Gets the card with card id id
+	 * @param id
+	 * @return Card, or null if id is EMPTY
+	 */
+	private static Card card(int id) {
+		if (id == EMPTY) {
+			return null;
 		}
+		return Card.get(id);
+	}
+
+	/**
+	 * Card id for the public methods, which use -1 for no card
+	 * @param id
+	 * @return
+	 */
+	private static int publicId(int id) {
+		return id == EMPTY ? -1 : id;
 	}
-	
 	/**
 	 * Makes random moves.
 	 *
@@ -1152,7 +1569,7 @@ public class CribbageState {
 			Random rand = new Random();
 			return moves[rand.nextInt(moves.length)];
 		}
-		
+
 		public String toString() {
 			return "Random Player";
 		}
@@ -1,57 +1,84 @@
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Random;
 
 /**
  * Deck of 52 cards
+ * Cards are stored as card ids (see Card.getId()), and shuffled in place.
  *
  */
 public class Deck {
-	
-	private Card[] deck;
+
+	private int[] deck;
 	private int count;
 	private final int DECK_SIZE = 52;
-	
+
 	//unshuffled deck
 	public Deck() {
-		deck = new Card[DECK_SIZE];
-		int i = 0;
-		for (Suit suit : Suit.values()) {
-			for (int rank = 1; rank <= 13; rank++) {
-				deck[i] = new Card(suit, rank);
-				i++;
-			}
+		deck = new int[DECK_SIZE];
+		for (int i = 0; i < DECK_SIZE; i++) {
+			deck[i] = i;
 		}
 		count = 0;
 	}
-	
+
 	//copy constructor
 	public Deck(Deck source) {
 		this.count = source.count;
-		this.deck = new Card[DECK_SIZE];
-		for (int i = 0; i < deck.length; i++) {
-			this.deck[i] = source.deck[i];
-		}
+		this.deck = source.deck.clone();
+	}
+
+	/**
+	 * Makes this deck the same as source, without allocating
+	 * @param source
+	 */
+	void copyFrom(Deck source) {
+		this.count = source.count;
+		System.arraycopy(source.deck, 0, this.deck, 0, DECK_SIZE);
 	}
-	
+
 	public Card draw() throws Exception {
 		if (count < DECK_SIZE) {
-			return deck[count++];
+			return Card.get(deck[count++]);
 		}
 		else {
 			throw new Exception("deck empty");
 		}
 	}
-	
+
+	/**
+	 * Number of cards drawn so far
+	 * @return
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Sets number of cards drawn, putting back any drawn after that
+	 * @param count
+	 */
+	void setCount(int count) {
+		this.count = count;
+	}
+
 	public Card getCard(int index) {
+		return Card.get(deck[index]);
+	}
+
+	/**
+	 * Gets the card id of the card at index
+	 * @param index
+	 * @return
+	 */
+	public int getCardId(int index) {
 		return deck[index];
 	}
-	
+
 	public Card[] draw(int n) throws Exception {
 		if (count + n < DECK_SIZE) {
 			Card[] cards = new Card[n];
 			for (int i = 0; i < n; i++) {
-				cards[i] = deck[count++];
+				cards[i] = Card.get(deck[count++]);
 			}
 			return cards;
 		}
@@ -59,48 +86,79 @@ public class Deck {
 			throw new Exception("not enough cards in deck");
 		}
 	}
-	
+
+	/**
+	 * Shuffles the deck using the calling thread's FastRandom
+	 */
 	public void shuffle() {
-		deck = shuffle(deck);
+		shuffle(FastRandom.current());
+	}
+
+	/**
+	 * Shuffles the deck
+	 * @param rand
+	 */
+	public void shuffle(Random rand) {
+		//Fisher-Yates
+		for (int i = DECK_SIZE - 1; i > 0; i--) {
+			swap(i, rand.nextInt(i + 1));
+		}
 		count = 0;
 	}
-	
+
 	/**
-	 * Shuffles the deck, holding the cards in indices in noShuffle constant
+	 * Shuffles the deck, holding the cards in indices in noShuffle constant,
+	 * using the calling thread's FastRandom
 	 * @param noShuffle
 	 */
 	public void partialShuffle(int[] noShuffle) {
+		partialShuffle(noShuffle, FastRandom.current());
+	}
+
+	/**
+	 * Shuffles the deck, holding the cards in indices in noShuffle constant
+	 * @param noShuffle indices, which will be sorted
+	 * @param rand
+	 */
+	public void partialShuffle(int[] noShuffle, Random rand) {
 		//sort in ascending order
 		Arrays.sort(noShuffle);
-		int noIndex = 0;
-		Card[] toShuffle = new Card[DECK_SIZE - noShuffle.length];
-		int j = 0;
-		for (int i = 0; i < DECK_SIZE; i++) {
-			if (i != noShuffle[noIndex]) {
-				toShuffle[j++] = deck[i];
-			}
-			else if (noIndex < noShuffle.length - 1) {
-				noIndex++;
-			}
+		//Fisher-Yates over just the indices not in noShuffle
+		for (int i = DECK_SIZE - noShuffle.length - 1; i > 0; i--) {
+			swap(shuffledIndex(i, noShuffle), shuffledIndex(rand.nextInt(i + 1), noShuffle));
+		}
+	}
+
+	/**
+	 * Gets the index in the deck of the ith card that isn't held constant
+	 * @param i
+	 * @param noShuffle sorted indices held constant
+	 * @return
+	 */
+	private int shuffledIndex(int i, int[] noShuffle) {
+		for (int j = 0; j < noShuffle.length && noShuffle[j] <= i; j++) {
+			i++;
 		}
-		
-		toShuffle = shuffle(toShuffle);
-		
-		noIndex = 0;
-		j = 0;
+		return i;
+	}
+
+	/**
+	 * Puts the card with card id id at index, swapping it with the card that was there
+	 * @param id
+	 * @param index
+	 */
+	void moveCard(int id, int index) {
 		for (int i = 0; i < DECK_SIZE; i++) {
-			if (i != noShuffle[noIndex]) {
-				deck[i] = toShuffle[j++];
-			}
-			else if (noIndex < noShuffle.length - 1) {
-				noIndex++;
+			if (deck[i] == id) {
+				swap(i, index);
+				return;
 			}
 		}
 	}
-	
-	private Card[] shuffle(Card[] deck) {
-		ArrayList<Card> d = new ArrayList<Card>(Arrays.asList(deck));
-		Collections.shuffle(d);
-		return (Card[]) d.toArray(new Card[deck.length]);
+
+	private void swap(int i, int j) {
+		int temp = deck[i];
+		deck[i] = deck[j];
+		deck[j] = temp;
 	}
 }
@@ -1,3 +1,6 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 public class DeterminizedUCTCribbage implements CribbagePlayer {
 
 	private int player;
@@ -5,8 +8,10 @@ public class DeterminizedUCTCribbage implements CribbagePlayer {
 	private long maxTime;
 	private long startTime;
 	private int maxNodes;
-	private int nodesExpanded;
 	private int dets;
+	private int threads;
+	private PlayoutPolicy policy;
+	private ForkJoinPool pool;
 	
 	/**
 	 * A Cribbage AI player that uses Determinized UCT to choose a move
@@ -18,64 +23,151 @@ public class DeterminizedUCTCribbage implements CribbagePlayer {
 	 * @throws Exception 
 	 */
 	public DeterminizedUCTCribbage(double Cp, long maxTime, int maxNodes, int dets) throws Exception {
+		this(Cp, maxTime, maxNodes, dets, 1);
+	}
+	
+	/**
+	 * A Cribbage AI player that uses Determinized UCT to choose a move,
+	 * searching the determinizations in parallel on a fork/join pool.
+	 * @param Cp coefficient that determines amount of exploration
+	 * @param maxTime maximum amount of time in ms to spend on a move, shared by all determinizations
+	 * @param maxNodes maximum number of Nodes to expand, shared by all determinizations
+	 * @param dets int: number of determinizations to divide search into
+	 * @param threads number of worker threads
+	 * At least one of maxTime or MaxNodes should be greater than zero.
+	 * @throws Exception 
+	 */
+	public DeterminizedUCTCribbage(double Cp, long maxTime, int maxNodes, int dets, int threads) throws Exception {
 		this.Cp = Cp;
 		if (maxTime <= 0 && maxNodes <= 0) {
 			throw new Exception("Invalid initialization of UCTCribbage: must have positive maxTime or maxNodes");
 		}
+		if (dets < 1 || threads < 1) {
+			throw new Exception("Invalid initialization of UCTCribbage: must have at least one determinization and thread");
+		}
 		this.maxTime = maxTime * 1000000; //ms to ns
 		this.maxNodes = maxNodes;
 		this.dets = dets;
+		this.threads = threads;
+		policy = PlayoutPolicy.RANDOM;
+		pool = new ForkJoinPool(threads);
+	}
+	
+	/**
+	 * Sets how the playouts choose moves (PlayoutPolicy.RANDOM unless this is called)
+	 * @param policy
+	 */
+	public void setPlayoutPolicy(PlayoutPolicy policy) {
+		this.policy = policy;
 	}
 	
 	/**
 	 * Chooses a move using Cheating UCT agent over a number of determinizations.
-	 * Known Bug: if the number of determinizations is larger than the number of ms,
-	 * it breaks because of integer division somewhere. Not hard to fix...
+	 * The budget is divided evenly between the determinizations; the time for each one is
+	 * scaled by the number of threads, since that many are searched at once.
 	 * @param state
 	 * @return
 	 * @throws Exception
 	 */
 	public int search(CribbageState state) throws Exception {
 		startTime = System.nanoTime();
-		nodesExpanded = 0;
 		player = state.playerToMove();
 		int[] actions = state.getActions();
-		int[] totalVisits = new int[actions.length];
-		long msMaxTime = maxTime / 1000000 / dets;
-		int nodes = maxNodes / dets;
 		
-		//divide processing time between determinized MCTS trees
-		while (!timeout()) {
-			CheatingUCTCribbage p = new CheatingUCTCribbage(Cp, msMaxTime, nodes);
-			nodesExpanded += nodes;
-			CribbageState newState = new CribbageState(state);
-			newState.randomize(player);
-			
-			//all visit counts for children of root node are summed
-			int[] visits = p.searchAndReturnVisitCounts(newState);
-			for (int i = 0; i < visits.length; i++) {
-				totalVisits[i] += visits[i];
-			}
-		}
+		//all visit counts for children of root node are summed
+		int[] totalVisits = pool.invoke(new DeterminizationTask(state, actions.length, 0, dets));
 		
 		//return action with most visits across all trees 
 		int max = 0;
 		for (int i = 1; i < actions.length; i++) {
-			if (totalVisits[i] > totalVisits[i - 1]) {
+			if (totalVisits[i] > totalVisits[max]) {
 				max = i;
 			}
 		}
 		return actions[max];
 	}
 	
-	private boolean timeout() {
-		if (maxTime > 0 && System.nanoTime() - startTime >= maxTime) {
-			return true;
+	/**
+	 * Searches a range of determinizations, splitting the range between workers,
+	 * and returns the visit counts of the children of the root summed over the range.
+	 */
+	private class DeterminizationTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		
+		private CribbageState state;
+		private int numActions;
+		private int from;
+		private int to;
+		
+		/**
+		 * @param state state to search from
+		 * @param numActions number of actions at state
+		 * @param from first determinization (inclusive)
+		 * @param to last determinization (exclusive)
+		 */
+		public DeterminizationTask(CribbageState state, int numActions, int from, int to) {
+			this.state = state;
+			this.numActions = numActions;
+			this.from = from;
+			this.to = to;
 		}
-		if (maxNodes > 0 && nodesExpanded >= maxNodes) {
-			return true;
+		
+		protected int[] compute() {
+			if (to - from > 1) {
+				int mid = (from + to) / 2;
+				DeterminizationTask left = new DeterminizationTask(state, numActions, from, mid);
+				left.fork();
+				int[] visits = new DeterminizationTask(state, numActions, mid, to).compute();
+				int[] leftVisits = left.join();
+				for (int i = 0; i < numActions; i++) {
+					visits[i] += leftVisits[i];
+				}
+				return visits;
+			}
+			
+			try {
+				return searchDeterminization(state, numActions, from);
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
 		}
-		return false;
+	}
+	
+	/**
+	 * Searches one determinization of state with its share of the budget
+	 * @param state
+	 * @param numActions number of actions at state
+	 * @param det which determinization this is, 0 to dets - 1
+	 * @return visit counts of the children of the root
+	 * @throws Exception
+	 */
+	private int[] searchDeterminization(CribbageState state, int numActions, int det) throws Exception {
+		//nodes are split evenly, with the remainder going to the first determinizations
+		int nodes = 0;
+		if (maxNodes > 0) {
+			nodes = maxNodes / dets + (det < maxNodes % dets ? 1 : 0);
+			if (nodes == 0) {
+				//more determinizations than nodes
+				return new int[numActions];
+			}
+		}
+		
+		//each worker searches dets / threads determinizations one after another
+		long time = 0;
+		if (maxTime > 0) {
+			time = Math.min(maxTime * Math.min(threads, dets) / dets, startTime + maxTime - System.nanoTime());
+			if (time <= 0) {
+				//time is up
+				return new int[numActions];
+			}
+		}
+		
+		CheatingUCTCribbage p = new CheatingUCTCribbage(Cp, maxTime / 1000000, maxNodes);
+		p.setPlayoutPolicy(policy);
+		CribbageState newState = new CribbageState(state);
+		newState.randomize(player);
+		return p.searchAndReturnVisitCounts(newState, time, nodes);
 	}
 
 	@Override
@@ -90,6 +182,10 @@ public class DeterminizedUCTCribbage implements CribbagePlayer {
 	}
 	
 	public String toString() {
-		return "Determinized UCT (" + Cp + ", " + (maxTime / 1000000) + ", " + maxNodes + ", " + dets + ")";
+		String playouts = policy != PlayoutPolicy.RANDOM ? ", " + policy : "";
+		if (threads > 1) {
+			return "Determinized UCT (" + Cp + ", " + (maxTime / 1000000) + ", " + maxNodes + ", " + dets + ", " + threads + " threads" + playouts + ")";
+		}
+		return "Determinized UCT (" + Cp + ", " + (maxTime / 1000000) + ", " + maxNodes + ", " + dets + playouts + ")";
 	}
 }
@@ -0,0 +1,72 @@
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Random number generator using xoroshiro128+, which is much faster than Random.
+ * Not thread safe (unlike Random, it doesn't use an atomic seed), so each thread needs its own;
+ * current() gets one for the calling thread.
+ *
+ */
+public class FastRandom extends Random {
+
+	private static final long serialVersionUID = 1L;
+
+	//used to make seeds of generators created at the same time different
+	private static final AtomicLong seedUniquifier = new AtomicLong(0x5DEECE66DL);
+
+	private static final ThreadLocal<FastRandom> current = new ThreadLocal<FastRandom>() {
+		protected FastRandom initialValue() {
+			return new FastRandom();
+		}
+	};
+
+	private long s0;
+	private long s1;
+
+	public FastRandom() {
+		this(seedUniquifier.addAndGet(0x9E3779B97F4A7C15L) ^ System.nanoTime());
+	}
+
+	public FastRandom(long seed) {
+		//Random's constructor calls setSeed()
+		super(seed);
+	}
+
+	/**
+	 * Gets the generator for the calling thread
+	 * @return
+	 */
+	public static FastRandom current() {
+		return current.get();
+	}
+
+	/**
+	 * Sets the state from seed using splitmix64, so that similar seeds give unrelated sequences
+	 */
+	public void setSeed(long seed) {
+		s0 = splitMix(seed);
+		s1 = splitMix(s0);
+	}
+
+	public long nextLong() {
+		long a = s0;
+		long b = s1;
+		long result = a + b;
+		b ^= a;
+		s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+		s1 = Long.rotateLeft(b, 37);
+		return result;
+	}
+
+	protected int next(int bits) {
+		//high bits are the most random
+		return (int) (nextLong() >>> (64 - bits));
+	}
+
+	private static long splitMix(long x) {
+		x += 0x9E3779B97F4A7C15L;
+		x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+		return x ^ (x >>> 31);
+	}
+}
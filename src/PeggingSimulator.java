@@ -0,0 +1,272 @@
+/**
+ * Plays out the pegging of a hand, for playouts that reach the PLAY stage.
+ * Once the cut is known nothing is hidden or random any more: what is left is the 8 cards kept in the two hands,
+ * the running count and the cards played since the last go or 31, and the show, which can be counted once up front.
+ * This class keeps just that, as 8 card ids and a few ints, and plays cards by the same rules as CribbageState.applyLegalAction(),
+ * without the history, hashing, listeners and stage changes a full state has to keep up.
+ * The plays are numbered like the PLAY actions of CribbageState.getActions(), and listed in the same order,
+ * so a playout that chooses the same way gets the same result either way.
+ * One simulator can be loaded again and again, so a search thread only needs one.
+ *
+ */
+public class PeggingSimulator {
+
+	private static final int[] PAIR_POINTS = {0, 0, 2, 6, 12};
+
+	//card ids of the 4 cards kept by each player, at 4 * player, and their ranks and values
+	private int[] cards = new int[8];
+	private int[] ranks = new int[8];
+	private int[] values = new int[8];
+	private int left0; //bit i set if cards[i] hasn't been played
+	private int left1; //bit i set if cards[4 + i] hasn't been played
+	private int minRank0; //lowest rank each player has left to play, 32 if none
+	private int minRank1;
+	private int playerToMove;
+	private int playCount;
+	private long roundRanks; //ranks of the cards played since the last go or 31, in order, 4 bits each
+	private int roundLength;
+	private int score0;
+	private int score1;
+	private int handScore0;
+	private int handScore1;
+	private int show0; //points each player gets in the show (with the crib for the dealer)
+	private int show1;
+	private boolean handOver;
+
+	/**
+	 * Sets up the rest of the hand from a state
+	 * @param s state in the PLAY stage, with the hand not over
+	 */
+	public void load(CribbageState s) {
+		int dealer = s.getDealer();
+		int cut = s.getCutId();
+		for (int player = 0; player < 2; player++) {
+			long inHand = s.getHandMask(player);
+			int left = 0;
+			int n = 4 * player;
+			//same order as the actions: slots 1-5, then 0
+			for (int k = 1; k <= 6; k++) {
+				int id = s.getHandId(player, k % 6);
+				if (id != -1) {
+					if ((inHand & (1L << id)) != 0) {
+						left |= 1 << (n - 4 * player);
+					}
+					ranks[n] = Card.rank(id);
+					values[n] = Card.value(id);
+					cards[n++] = id;
+				}
+			}
+			int show = CribbageScoring.countHand(cards[4 * player], cards[4 * player + 1], cards[4 * player + 2], cards[4 * player + 3], cut, false);
+			if (player == dealer) {
+				show += CribbageScoring.countHand(s.getCribId(0), s.getCribId(1), s.getCribId(2), s.getCribId(3), cut, true);
+			}
+			if (player == 0) {
+				left0 = left;
+				show0 = show;
+			}
+			else {
+				left1 = left;
+				show1 = show;
+			}
+			setMinRank(player);
+		}
+
+		playerToMove = s.playerToMove();
+		playCount = s.getPlayCount();
+		roundRanks = 0;
+		roundLength = 0;
+		for (int i = s.getPlayStart(); i < s.getNumCardsPlayed(); i++) {
+			roundRanks |= (long) Card.rank(s.getPlayedId(i)) << (4 * roundLength++);
+		}
+		score0 = s.getScore(0);
+		score1 = s.getScore(1);
+		//only the difference is known, which is all the playouts use
+		handScore0 = s.getHandPointDiff(0);
+		handScore1 = 0;
+		handOver = false;
+	}
+
+	/**
+	 * Is the hand over (or the game, if someone got to 121 while pegging)?
+	 * @return
+	 */
+	public boolean isOver() {
+		return handOver;
+	}
+
+	/**
+	 * Gets the net gain(loss) in points for player during the hand, like CribbageState.getHandPointDiff()
+	 * @param player
+	 * @return
+	 */
+	public int getHandPointDiff(int player) {
+		return player == 0 ? handScore0 - handScore1 : handScore1 - handScore0;
+	}
+
+	/**
+	 * Gets the cards the player to move can play, as in CribbageState.getActions(int[])
+	 * @param plays buffer with room for 4 plays
+	 * @return number of plays
+	 */
+	public int getPlays(int[] plays) {
+		int base = 4 * playerToMove;
+		int left = playerToMove == 0 ? left0 : left1;
+		int count = 0;
+		for (int i = 0; i < 4; i++) {
+			if ((left & (1 << i)) != 0 && values[base + i] <= 31 - playCount) {
+				plays[count++] = i;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the points the player to move would peg with a play, from a fifteen, 31, pairs or a run (not the go),
+	 * like CribbageState.getPlayPoints()
+	 * @param play 0-3, from getPlays()
+	 * @return
+	 */
+	public int getPlayPoints(int play) {
+		int points = 0;
+		int count = playCount + values[4 * playerToMove + play];
+		if (count == 15 || count == 31) {
+			points += 2;
+		}
+		return points + setPoints(ranks[4 * playerToMove + play]);
+	}
+
+	/**
+	 * Plays a card for the player to move, and everything that follows from it up to the next play:
+	 * the go, the point for the last card, and the show at the end of the hand
+	 * @param play 0-3, from getPlays()
+	 */
+	public void play(int play) {
+		int player = playerToMove;
+		int rank = ranks[4 * player + play];
+		if (player == 0) {
+			left0 &= ~(1 << play);
+		}
+		else {
+			left1 &= ~(1 << play);
+		}
+		setMinRank(player);
+		int points = setPoints(rank);
+		playCount += values[4 * player + play];
+		if (playCount == 15 || playCount == 31) {
+			points += 2;
+		}
+		roundRanks |= (long) rank << (4 * roundLength++);
+		addPoints(player, points);
+
+		//next play, in the same order as CribbageState
+		int other = 1 - player;
+		if (canPlay(other)) {
+			playerToMove = other;
+		}
+		else if (!canPlay(player)) {
+			if (playCount != 31) {
+				addPoints(player, 1);
+			}
+			playCount = 0;
+			roundRanks = 0;
+			roundLength = 0;
+			if (canPlay(other)) {
+				playerToMove = other;
+			}
+			else if (!canPlay(player)) {
+				//show, all of it even if someone has already won, as in CribbageState
+				addPoints(0, show0);
+				addPoints(1, show1);
+				handOver = true;
+			}
+		}
+	}
+
+	/**
+	 * Gets the points for pairs or a run from playing a card of rank rank, before it is added to the round
+	 * @param rank 1-13
+	 * @return
+	 */
+	private int setPoints(int rank) {
+		//pairs: cards of the same rank at the end of the round
+		int streak = 1;
+		while (streak <= roundLength && rank(roundLength - streak) == rank) {
+			streak++;
+		}
+		if (streak > 1) {
+			return PAIR_POINTS[streak];
+		}
+		//runs: the longest set of cards at the end of the round, with this one, whose ranks are all different
+		//and consecutive (ranks seen so far as bits, to find repeats)
+		int bestRun = 0;
+		int ranks = 1 << rank;
+		int min = rank;
+		int max = rank;
+		for (int n = 2; n <= roundLength + 1; n++) {
+			int r = rank(roundLength + 1 - n);
+			if ((ranks & (1 << r)) != 0) {
+				break;
+			}
+			ranks |= 1 << r;
+			min = Math.min(min, r);
+			max = Math.max(max, r);
+			if (n >= 3 && max - min == n - 1) {
+				bestRun = n;
+			}
+		}
+		return bestRun;
+	}
+
+	/**
+	 * Gets the rank of a card played in this round
+	 * @param i 0 for the first card since the last go or 31
+	 * @return 1-13
+	 */
+	private int rank(int i) {
+		return (int) (roundRanks >>> (4 * i)) & 15;
+	}
+
+	/**
+	 * Can the player play a card at the current count?
+	 * Like CribbageState, this goes by rank rather than value, so a king only counts as playable up to a count of 18.
+	 * @param player
+	 * @return
+	 */
+	private boolean canPlay(int player) {
+		return (player == 0 ? minRank0 : minRank1) <= 31 - playCount;
+	}
+
+	/**
+	 * Finds the lowest rank the player has left, after the player's cards change
+	 * @param player
+	 */
+	private void setMinRank(int player) {
+		int left = player == 0 ? left0 : left1;
+		int min = 32;
+		for (int i = 0; i < 4; i++) {
+			if ((left & (1 << i)) != 0) {
+				min = Math.min(min, ranks[4 * player + i]);
+			}
+		}
+		if (player == 0) {
+			minRank0 = min;
+		}
+		else {
+			minRank1 = min;
+		}
+	}
+
+	private void addPoints(int player, int points) {
+		if (player == 0) {
+			score0 += points;
+			handScore0 += points;
+		}
+		else {
+			score1 += points;
+			handScore1 += points;
+		}
+		if (score0 >= 121 || score1 >= 121) {
+			handOver = true;
+		}
+	}
+}
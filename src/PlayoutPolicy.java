@@ -0,0 +1,212 @@
+import java.util.Random;
+
+/**
+ * Chooses moves for the playouts of the MCTS players.
+ * Moves are epsilon-greedy: with probability epsilon a random legal move, otherwise a greedy move in the spirit of
+ * ScriptedCribbagePlayer (the throw that keeps the best 4 card hand without the cut, or the card that pegs the most
+ * points right away), with ties broken at random. An epsilon of 1 (RANDOM) is the uniformly random playout the players have always used.
+ * A policy has no state of its own, so one can be shared by any number of threads, and choosing a move doesn't
+ * allocate anything: each caller passes in its own buffer for the actions.
+ *
+ */
+public class PlayoutPolicy {
+
+	//uniformly random moves, drawing one random number per move (the players' default)
+	public static final PlayoutPolicy RANDOM = new PlayoutPolicy(1.0);
+
+	//the 15 ways to throw 2 of 6 cards: the positions thrown, and the 4 positions kept in order
+	private static final int[] THROWN = new int[30];
+	private static final int[] KEPT = new int[60];
+	private static final long SUIT = (1L << 13) - 1;
+
+	static {
+		int t = 0;
+		for (int a = 0; a < 6; a++) {
+			for (int b = a + 1; b < 6; b++) {
+				THROWN[2 * t] = a;
+				THROWN[2 * t + 1] = b;
+				int k = 4 * t;
+				for (int i = 0; i < 6; i++) {
+					if (i != a && i != b) {
+						KEPT[k++] = i;
+					}
+				}
+				t++;
+			}
+		}
+	}
+
+	private double epsilon;
+
+	/**
+	 * @param epsilon probability of a random move instead of the greedy one, 0 to 1
+	 */
+	public PlayoutPolicy(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * Plays out the rest of the hand from state s
+	 * @param s state to play from, which is changed
+	 * @param rand random number generator to use for this playout
+	 * @param moves buffer for the actions, with room for CribbageState.MAX_ACTIONS
+	 */
+	public void playOut(CribbageState s, Random rand, int[] moves) {
+		while (!s.handOver()) {
+			s.applyLegalAction(chooseAction(s, rand, moves));
+		}
+	}
+
+	/**
+	 * Plays out the rest of the hand from state s, like playOut(CribbageState, Random, int[]),
+	 * but hands the pegging over to a PeggingSimulator once the cut is known.
+	 * The moves and their points are the same as with the other playOut() given the same random numbers.
+	 * @param s state to play from, which is changed (and left at the start of the pegging if it gets there)
+	 * @param rand random number generator to use for this playout
+	 * @param moves buffer for the actions, with room for CribbageState.MAX_ACTIONS
+	 * @param pegging simulator for this thread
+	 * @return net gain(loss) in points for player 0 during the hand, as from getHandPointDiff(0)
+	 */
+	public int playOut(CribbageState s, Random rand, int[] moves, PeggingSimulator pegging) {
+		while (!s.handOver() && s.getStage() != CribbageStage.PLAY) {
+			s.applyLegalAction(chooseAction(s, rand, moves));
+		}
+		if (s.handOver()) {
+			return s.getHandPointDiff(0);
+		}
+		pegging.load(s);
+		while (!pegging.isOver()) {
+			pegging.play(choosePlay(pegging, rand, moves));
+		}
+		return pegging.getHandPointDiff(0);
+	}
+
+	/**
+	 * Chooses a move for the player to move
+	 * @param s state, which isn't over
+	 * @param rand
+	 * @param moves buffer for the actions, with room for CribbageState.MAX_ACTIONS
+	 * @return legal action
+	 */
+	public int chooseAction(CribbageState s, Random rand, int[] moves) {
+		int numMoves = s.getActions(moves);
+		if (epsilon >= 1.0) {
+			return moves[rand.nextInt(numMoves)];
+		}
+		if (numMoves == 1) {
+			return moves[0];
+		}
+		if (epsilon > 0 && rand.nextDouble() < epsilon) {
+			return moves[rand.nextInt(numMoves)];
+		}
+		if (s.getStage() == CribbageStage.THROW) {
+			return greedyThrow(s, rand, moves);
+		}
+
+		//ties go to the first tied move after a random starting point
+		int start = rand.nextInt(numMoves);
+		int best = start;
+		int bestPoints = -1;
+		for (int k = 0; k < numMoves; k++) {
+			int i = start + k < numMoves ? start + k : start + k - numMoves;
+			int points = s.getPlayPoints(moves[i]);
+			if (points > bestPoints) {
+				bestPoints = points;
+				best = i;
+			}
+		}
+		return moves[best];
+	}
+
+	/**
+	 * Chooses a play in the pegging, the same way as chooseAction() in the PLAY stage
+	 * @param pegging simulator, which isn't over
+	 * @param rand
+	 * @param moves buffer for the plays
+	 * @return play for the simulator
+	 */
+	private int choosePlay(PeggingSimulator pegging, Random rand, int[] moves) {
+		int numMoves = pegging.getPlays(moves);
+		if (epsilon >= 1.0) {
+			return moves[rand.nextInt(numMoves)];
+		}
+		if (numMoves == 1) {
+			return moves[0];
+		}
+		if (epsilon > 0 && rand.nextDouble() < epsilon) {
+			return moves[rand.nextInt(numMoves)];
+		}
+
+		int start = rand.nextInt(numMoves);
+		int best = start;
+		int bestPoints = -1;
+		for (int k = 0; k < numMoves; k++) {
+			int i = start + k < numMoves ? start + k : start + k - numMoves;
+			int points = pegging.getPlayPoints(moves[i]);
+			if (points > bestPoints) {
+				bestPoints = points;
+				best = i;
+			}
+		}
+		return moves[best];
+	}
+
+	/**
+	 * The throw that keeps the 4 cards worth the most without a cut.
+	 * The 6 cards are sorted by rank once, so that each of the 15 hands kept is already in order for counting.
+	 * @param s state in the throw stage
+	 * @param rand
+	 * @param cards buffer for the 6 cards
+	 * @return legal action
+	 */
+	private int greedyThrow(CribbageState s, Random rand, int[] cards) {
+		long hand = s.getHandMask(s.playerToMove());
+		//a flush is only possible with 4 of the 6 in one suit
+		int flushSuit = -1;
+		for (int suit = 0; suit < 4; suit++) {
+			if (Long.bitCount(hand & (SUIT << (13 * suit))) >= 4) {
+				flushSuit = suit;
+			}
+		}
+		//insertion sort on rank, with the card id in the low bits
+		for (int n = 0; n < 6; n++) {
+			int id = Long.numberOfTrailingZeros(hand);
+			hand &= hand - 1;
+			int key = (id % 13) << 6 | id;
+			int i = n;
+			while (i > 0 && cards[i - 1] > key) {
+				cards[i] = cards[i - 1];
+				i--;
+			}
+			cards[i] = key;
+		}
+
+		int start = rand.nextInt(15);
+		int best = start;
+		int bestPoints = -1;
+		for (int k = 0; k < 15; k++) {
+			int t = start + k < 15 ? start + k : start + k - 15;
+			int c0 = cards[KEPT[4 * t]];
+			int c1 = cards[KEPT[4 * t + 1]];
+			int c2 = cards[KEPT[4 * t + 2]];
+			int c3 = cards[KEPT[4 * t + 3]];
+			int points = CribbageScoring.countSortedRanks(c0 >> 6, c1 >> 6, c2 >> 6, c3 >> 6);
+			if (flushSuit >= 0 && Card.suit(c0 & 63) == flushSuit && Card.suit(c1 & 63) == flushSuit
+					&& Card.suit(c2 & 63) == flushSuit && Card.suit(c3 & 63) == flushSuit) {
+				points += 4;
+			}
+			if (points > bestPoints) {
+				bestPoints = points;
+				best = t;
+			}
+		}
+		return s.indexAction(CribbageState.throwAction(cards[THROWN[2 * best]] & 63, cards[THROWN[2 * best + 1]] & 63));
+	}
+
+	public String toString() {
+		if (epsilon >= 1.0) {
+			return "random playouts";
+		}
+		return "greedy playouts (epsilon " + epsilon + ")";
+	}
+}
@@ -1,19 +1,48 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class SingleObserverCribbage implements CribbagePlayer {
 
-	private int player;
-	private Random rand;
 	private double Cp;
 	private long maxTime;
 	private long startTime;
 	private int maxNodes;
-	private int nodesExpanded;
+	private AtomicInteger nodesExpanded;
+	private int threads;
+	private boolean sharedTree;
+	private boolean rankPlays;
+	private boolean reuseTree;
+	private PlayoutPolicy policy;
+	private ExecutorService pool;
 	
-	//In this version a single state is used rather than storing them in nodes
-	private CribbageState determState;
+	//with reuseTree: the state searched last, and the root of each tree (one if shared) at the end of that search
+	private CribbageState lastState;
+	private Node[] lastRoots;
+	//iterations (summed over all trees) that the last search started with, from earlier searches
+	private int iterationsInherited;
+	
+	//value (in points) of the loss assumed for each traversal still in progress through a node
+	private static final double VIRTUAL_LOSS = 10.0;
+	
+	//Actions are identified by keys that mean the same thing in every determinization:
+	//the card action (see CribbageState.getCardActions()) for cards thrown, played or cut,
+	//or RANK_KEYS + rank for a card played when plays are keyed by rank
+	private static final int RANK_KEYS = CribbageState.NUM_CARD_ACTIONS;
+	//action of the root
+	private static final int NO_ACTION = -1;
 	
 	/**
 	 * A Cribbage AI player that uses Single Observer-Information Set MCTS algorithm
@@ -24,154 +53,273 @@ public class SingleObserverCribbage implements CribbagePlayer {
 	 * @throws Exception 
 	 */
 	public SingleObserverCribbage(double Cp, long maxTime, int maxNodes) throws Exception {
-		rand = new Random();
+		this(Cp, maxTime, maxNodes, 1, false);
+	}
+	
+	/**
+	 * A Cribbage AI player that uses Single Observer-Information Set MCTS algorithm,
+	 * searching with several threads in parallel (root parallelization).
+	 * Each thread builds its own tree from its own determinizations, and the statistics
+	 * of the children of the roots are summed before choosing a move.
+	 * @param Cp coefficient that determines amount of exploration
+	 * @param maxTime maximum amount of time in ms to spend on a move
+	 * @param maxNodes maximum number of Nodes to expand, shared by all threads
+	 * @param threads number of search threads
+	 * At least one of maxTime or MaxNodes should be greater than zero.
+	 * @throws Exception 
+	 */
+	public SingleObserverCribbage(double Cp, long maxTime, int maxNodes, int threads) throws Exception {
+		this(Cp, maxTime, maxNodes, threads, false);
+	}
+	
+	/**
+	 * A Cribbage AI player that uses Single Observer-Information Set MCTS algorithm,
+	 * searching with several threads in parallel.
+	 * With sharedTree all threads walk the same tree (tree parallelization), using virtual loss
+	 * to spread out over different branches. Otherwise each thread builds its own tree (root parallelization).
+	 * @param Cp coefficient that determines amount of exploration
+	 * @param maxTime maximum amount of time in ms to spend on a move
+	 * @param maxNodes maximum number of Nodes to expand, shared by all threads
+	 * @param threads number of search threads
+	 * @param sharedTree true for all threads to search one tree
+	 * At least one of maxTime or MaxNodes should be greater than zero.
+	 * @throws Exception 
+	 */
+	public SingleObserverCribbage(double Cp, long maxTime, int maxNodes, int threads, boolean sharedTree) throws Exception {
+		this(Cp, maxTime, maxNodes, threads, sharedTree, false);
+	}
+	
+	/**
+	 * A Cribbage AI player that uses Single Observer-Information Set MCTS algorithm,
+	 * searching with several threads in parallel, optionally keying cards played in the PLAY stage by rank only.
+	 * Suits don't affect pegging, so playing the 5 of spades or the 5 of hearts leads to the same result.
+	 * With rankPlays they share one child node, which cuts the branching and adds up visits
+	 * (and availability) across determinizations faster.
+	 * @param Cp coefficient that determines amount of exploration
+	 * @param maxTime maximum amount of time in ms to spend on a move
+	 * @param maxNodes maximum number of Nodes to expand, shared by all threads
+	 * @param threads number of search threads
+	 * @param sharedTree true for all threads to search one tree
+	 * @param rankPlays true for PLAY actions to be keyed by the rank of the card
+	 * At least one of maxTime or MaxNodes should be greater than zero.
+	 * @throws Exception 
+	 */
+	public SingleObserverCribbage(double Cp, long maxTime, int maxNodes, int threads, boolean sharedTree, boolean rankPlays) throws Exception {
+		this(Cp, maxTime, maxNodes, threads, sharedTree, rankPlays, false);
+	}
+	
+	/**
+	 * A Cribbage AI player that uses Single Observer-Information Set MCTS algorithm,
+	 * optionally keeping its tree from one move to the next within a hand.
+	 * With reuseTree each search starts from the node of the last search's tree that the cards seen since then
+	 * lead to (this player's throw, the cut and the cards played), keeping the statistics already collected there.
+	 * The opponent's throw isn't seen, so the tree of a throw before the opponent's is not kept.
+	 * @param Cp coefficient that determines amount of exploration
+	 * @param maxTime maximum amount of time in ms to spend on a move
+	 * @param maxNodes maximum number of Nodes to expand, shared by all threads
+	 * @param threads number of search threads
+	 * @param sharedTree true for all threads to search one tree
+	 * @param rankPlays true for PLAY actions to be keyed by the rank of the card
+	 * @param reuseTree true to keep the tree between moves
+	 * At least one of maxTime or MaxNodes should be greater than zero.
+	 * @throws Exception 
+	 */
+	public SingleObserverCribbage(double Cp, long maxTime, int maxNodes, int threads, boolean sharedTree, boolean rankPlays, boolean reuseTree) throws Exception {
 		this.Cp = Cp;
 		if (maxTime <= 0 && maxNodes <= 0) {
 			throw new Exception("Invalid initialization: must have positive maxTime or maxNodes");
 		}
+		if (threads < 1) {
+			throw new Exception("Invalid initialization: must have at least one thread");
+		}
 		this.maxTime = maxTime * 1000000; //ms to ns
 		this.maxNodes = maxNodes;
+		this.threads = threads;
+		this.sharedTree = sharedTree;
+		this.rankPlays = rankPlays;
+		this.reuseTree = reuseTree;
+		policy = PlayoutPolicy.RANDOM;
+		nodesExpanded = new AtomicInteger();
+		
+		if (threads > 1) {
+			//daemon threads so an idle pool doesn't keep the program running
+			pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "SO-ISMCTS search");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Sets how the playouts choose moves (PlayoutPolicy.RANDOM unless this is called)
+	 * @param policy
+	 */
+	public void setPlayoutPolicy(PlayoutPolicy policy) {
+		this.policy = policy;
 	}
 	
 	public int search(CribbageState state) throws Exception {
 		startTime = System.nanoTime();
-		nodesExpanded = 0;
-		player = state.playerToMove();
-		
-		//create root node with current state
-		//parent is null, availability count is 0 (never used for root), action is null (never used for root)
-		Node node = new Node(state.playerToMove(), null, null, 0);
-		
-		while (!timeout()) {
-			//create determinization for this playout
-			determState = new CribbageState(state);
-			determState.randomize(player);
-			Node newNode = treePolicy(node);
-			double[] delta = defaultPolicy(determState);
-			backup(newNode, delta);
-			nodesExpanded++;
-		}
-		return findActionFromCard(state, mostVisits(node).getAction());
+		nodesExpanded.set(0);
+		
+		//root of each tree to search from, null for a new tree
+		Node[] startRoots = new Node[sharedTree ? 1 : threads];
+		iterationsInherited = 0;
+		if (reuseTree) {
+			findSubtrees(state, startRoots);
+			lastRoots = null;
+		}
+		
+		Node sharedRoot = null;
+		if (sharedTree) {
+			sharedRoot = startRoots[0];
+			if (sharedRoot == null) {
+				//parent is null, availability count is 0 (never used for root), action is NO_ACTION (never used for root)
+				sharedRoot = new Node(state.playerToMove(), NO_ACTION, null, 0);
+			}
+		}
+		
+		Node[] roots = new Node[threads];
+		if (threads == 1) {
+			roots[0] = new SearchWorker(state, sharedTree ? sharedRoot : startRoots[0]).call();
+		}
+		else {
+			List<SearchWorker> workers = new ArrayList<SearchWorker>();
+			for (int i = 0; i < threads; i++) {
+				workers.add(new SearchWorker(state, sharedTree ? sharedRoot : startRoots[i]));
+			}
+			List<Future<Node>> results = pool.invokeAll(workers);
+			for (int i = 0; i < threads; i++) {
+				roots[i] = results.get(i).get();
+			}
+		}
+		
+		if (sharedTree) {
+			roots = new Node[] {sharedRoot};
+		}
+		if (reuseTree) {
+			lastState = new CribbageState(state);
+			lastRoots = roots;
+		}
+		return findActionFromCard(state, mostVisits(roots));
 	}
 	
 	/**
-	 * Calculates weather computational or time budget is up
-	 * @return boolean
+	 * Finds the nodes for state in the trees kept from the last search, by following the actions this player
+	 * has seen since then. Each root found is detached from its parent, so backups stop there.
+	 * @param state state to search from
+	 * @param roots set to the node found in each tree, or left null if there isn't one
+	 * @throws Exception
 	 */
-	private boolean timeout() {
-		if (maxTime > 0 && System.nanoTime() - startTime >= maxTime) {
-			return true;
+	private void findSubtrees(CribbageState state, Node[] roots) throws Exception {
+		if (lastRoots == null) {
+			return;
 		}
-		if (maxNodes > 0 && nodesExpanded >= maxNodes) {
-			return true;
+		int[] keys = keysSince(lastState, state);
+		if (keys == null) {
+			return;
 		}
-		return false;
-	}
-
-	/**
-	 * Descends tree: returns unexpanded node of tree if they exist and are compatible with this determinization
-	 * otherwise descends further using modified UCB1 to choose
-	 * @param n start node
-	 * @return new expanded node or a previously visited terminal node
-	 * @throws Exception 
-	 */
-	private Node treePolicy(Node n) throws Exception {
-		while (!determState.handOver()) {
-			if (fullyExpanded(n)) {
-				n = bestChild(n, Cp);
-				determState.applyAction(findActionFromCard(determState, n.getAction()));
+		for (int i = 0; i < roots.length; i++) {
+			Node n = lastRoots[i];
+			for (int j = 0; j < keys.length && n != null; j++) {
+				n = n.getChild(keys[j]);
 			}
-			else {
-				n = expand(n);
-				//action should be already applied in expand()
-				return n; 
+			//the player to move can depend on the determinization the node was made in (after a go)
+			if (n != null && n.getPlayer() == state.playerToMove()) {
+				n.makeRoot();
+				iterationsInherited += n.getVisits();
+				roots[i] = n;
 			}
 		}
-		return n;
 	}
 	
 	/**
-	 * Expands node
-	 * @param n node to expand
-	 * @return new child node of n
-	 * @throws Exception
+	 * Gets the keys of the actions from one state to a later state in the same hand, as seen by the player to move
+	 * in the first state. This player's throw, the cut and the cards played can be seen, but the opponent's throw can't.
+	 * @param from state of an earlier search
+	 * @param to
+	 * @return action keys in order, or null if to isn't later in the same hand or the actions can't all be seen
 	 */
-	private Node expand(Node n) throws Exception {
-		int[] moves = determState.getActions();
-		ArrayList<Integer> notTried = new ArrayList<Integer>();
-		CardTuple tup = null;
-		
-		//cycle through possible actions and create their corresponding cardtuples
-		for (int i = 0; i < moves.length; i++) {
-			switch (determState.getStage()) {
-			case DEAL:
-				throw new Exception("Trying to expand node at DEAL stage");
-			case THROW:
-				Card[] cards = determState.getCardsThrownByIndex(determState.playerToMove(), moves[i]);
-				tup = new CardTuple(cards[0], cards[1]);
-				break;
-			case CUT:
-				//only one move is possible
-				tup = new CardTuple(determState.getDeck().getCard(12));
-				break;
-			case PLAY:
-				tup = new CardTuple(determState.getFullHand(determState.playerToMove())[moves[i]]);
-				break;
-			}
-			//for each cardtuple, increment number in parent node's available count hashmap
-			if (n.getChildrenAvailability().containsKey(tup)) {
-				n.getChildrenAvailability().put(tup, n.getChildrenAvailability().get(tup) + 1);
-			}
-			else {
-				n.getChildrenAvailability().put(tup, 1);
-			}
-			//also store actions not yet tried
-			if (!n.getChildren().containsKey(tup)) {
-				notTried.add(moves[i]);
-			}			
-		}
-		
-		//choose a random action/cardtuple and create a new node with that, using parent's value for availability for that child
-		int action = notTried.get(rand.nextInt(notTried.size()));
-		switch (determState.getStage()) {
-		case DEAL:
-			throw new Exception("Trying to expand node at DEAL stage");
+	private int[] keysSince(CribbageState from, CribbageState to) {
+		int player = from.playerToMove();
+		if (to.getDealer() != from.getDealer()) {
+			return null;
+		}
+		//same cards dealt to this player, except for any thrown since
+		for (int i = 0; i < 6; i++) {
+			int id = to.getHandId(player, i);
+			if (id != -1 && id != from.getHandId(player, i)) {
+				return null;
+			}
+		}
+		
+		int[] keys = new int[2 + to.getNumCardsPlayed()];
+		int numKeys = 0;
+		int firstPlay;
+		switch (from.getStage()) {
 		case THROW:
-			Card[] cards = determState.getCardsThrownByIndex(determState.playerToMove(), action);
-			tup = new CardTuple(cards[0], cards[1]);
-			break;
-		case CUT:
-			//only one move is possible
-			tup = new CardTuple(determState.getDeck().getCard(12));
+			//the opponent has to have thrown first, and this player's throw and the cut have to have happened since
+			if (from.getCribId(2 * (1 - player)) == -1 || to.getCribId(2 * player) == -1 || to.getCutId() == -1) {
+				return null;
+			}
+			keys[numKeys++] = CribbageState.throwAction(to.getCribId(2 * player), to.getCribId(2 * player + 1));
+			keys[numKeys++] = to.getCutId();
+			firstPlay = 0;
 			break;
 		case PLAY:
-			tup = new CardTuple(determState.getFullHand(determState.playerToMove())[action]);
+			if (to.getStage() != CribbageStage.PLAY || to.getNumCardsPlayed() < from.getNumCardsPlayed()) {
+				return null;
+			}
+			for (int i = 0; i < from.getNumCardsPlayed(); i++) {
+				if (to.getPlayedId(i) != from.getPlayedId(i)) {
+					return null;
+				}
+			}
+			firstPlay = from.getNumCardsPlayed();
 			break;
+		default:
+			return null;
+		}
+		for (int i = firstPlay; i < to.getNumCardsPlayed(); i++) {
+			keys[numKeys++] = playKey(to.getPlayedId(i));
 		}
-		//apply action and create new node
-		determState.applyAction(action);
-		Node newNode = new Node(determState.playerToMove(), tup, n, n.getChildrenAvailability().get(tup));
-		n.addChild(tup, newNode);
-		return newNode;
+		return Arrays.copyOf(keys, numKeys);
 	}
 	
 	/**
-	 * Plays out game from state s with all random moves
-	 * @param s state to play from
-	 * @return double value of this playout.
-	 * @throws Exception
+	 * Number of iterations (summed over all trees) of earlier searches that the last search started with,
+	 * through the nodes it kept (0 unless reuseTree)
+	 * @return int
+	 */
+	public int getIterationsInherited() {
+		return iterationsInherited;
+	}
+	
+	/**
+	 * Number of iterations (summed over all threads) done by the last search
+	 * @return int
 	 */
-	private double[] defaultPolicy(CribbageState s) throws Exception {
-		while (!s.handOver()) {
-			int[] moves = s.getActions();
-			s.applyAction(moves[rand.nextInt(moves.length)]);
-		}
-		double[] rewards = new double[2];
-		rewards[0] = s.getHandPointDiff(0);
-		rewards[1] = s.getHandPointDiff(1);
-		return rewards;
+	public int getNodesExpanded() {
+		return nodesExpanded.get();
 	}
 	
+	/**
+	 * Calculates weather computational or time budget is up
+	 * @return boolean
+	 */
+	private boolean timeout() {
+		if (maxTime > 0 && System.nanoTime() - startTime >= maxTime) {
+			return true;
+		}
+		if (maxNodes > 0 && nodesExpanded.get() >= maxNodes) {
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Backs up a value delta to a node n's ancestors
 	 * @param n Node
@@ -180,153 +328,319 @@ public class SingleObserverCribbage implements CribbagePlayer {
 	private void backup(Node n, double[] delta) {
 		while (n != null) {
 			n.backupVisit(delta);
+			if (sharedTree && n.getParent() != null) {
+				n.removeVirtualLoss();
+			}
 			n = n.getParent();
 		}
 	}
 	
 	/**
-	 * Returns best child to visit based on modified UCB1 algorithm
-	 * This method also increments child availability count, which would normally be done on the way up in backup(),
-	 * but can't be because of the SO-IS algorithm
-	 * @param n node to find best child of
-	 * @param c constant regulating amount of exploration
-	 * @return the best Node to visit
-	 * @throws Exception 
+	 * Finds the action with the most visits, summing the visits of the children
+	 * of each root when the search used more than one tree.
+	 * Needed for choosing action to return after search is complete
+	 * because of changes to bestChild for handling IS determinizations
+	 * @param roots root of each tree searched
+	 * @return action key
+	 * @throws Exception
 	 */
-	private Node bestChild(Node n, double c) throws Exception {
-		int player = n.getPlayer();
-		Node maxChild = null;
+	private int mostVisits(Node[] roots) throws Exception {
+		Map<Integer, Integer> visits = new HashMap<Integer, Integer>();
+		for (Node root : roots) {
+			for (Node child : root.getChildNodes()) {
+				Integer total = visits.get(child.getAction());
+				visits.put(child.getAction(), total == null ? child.getVisits() : total + child.getVisits());
+			}
+		}
+		
+		int maxAction = NO_ACTION;
 		double max = Double.NEGATIVE_INFINITY;
-		CardTuple tup = null;
-		for (int action : determState.getActions()) {
-			//get cardTuple representing the action
-			switch (determState.getStage()) {
-			case DEAL:
-				throw new Exception("Trying to choose best child node at DEAL stage");
-			case THROW:
-				Card[] cards = determState.getCardsThrownByIndex(determState.playerToMove(), action);
-				tup = new CardTuple(cards[0], cards[1]);
-				break;
-			case CUT:
-				//only one move is possible
-				tup = new CardTuple(determState.getDeck().getCard(12));
-				break;
-			case PLAY:
-				tup = new CardTuple(determState.getFullHand(determState.playerToMove())[action]);
-				break;
-			}
-			Node child = n.getChildren().get(tup);
-			//increment availability:
-			child.addAvailable();
-			//get value
-			double val = child.getReward(player) / child.getVisits() + c * Math.sqrt(2 * Math.log(child.getAvailability()) / child.getVisits());
+		for (Map.Entry<Integer, Integer> entry : visits.entrySet()) {
+			double val = entry.getValue();
 			if (val > max) {
 				max = val;
-				maxChild = child;
+				maxAction = entry.getKey();
 			}
 		}
-		return maxChild;
+		return maxAction;
 	}
 	
 	/**
-	 * Finds the child node with the most visits.
-	 * Needed for choosing action to return after search is complete
-	 * because of changes to bestChild for handling IS determinizations
-	 * @param n
-	 * @return
+	 * Finds the action that the state will accept for an action key, to return from getMove()
+	 * @param state CribbageState
+	 * @param actionKey key representing an action
+	 * @return action, as from getActions(), that corresponds to the card(s) in actionKey, or -1 if there is none
 	 * @throws Exception
 	 */
-	private Node mostVisits(Node n) throws Exception {
-		Node maxChild = null;
-		double max = Double.NEGATIVE_INFINITY;
-		for (Node child : n.getChildren().values()) {
-			double val = child.getVisits();
-			if (val > max) {
-				max = val;
-				maxChild = child;
+	private int findActionFromCard(CribbageState state, int actionKey) throws Exception {
+		switch (state.getStage()) {
+		case DEAL:
+			throw new Exception("Trying to find action at DEAL stage");
+		case CUT:
+			//only one move is possible
+			return 0;
+		default:
+			for (int action : state.getActions()) {
+				if (actionKey(state, state.cardAction(action)) == actionKey) {
+					return action;
+				}
 			}
+			return -1;
 		}
-		return maxChild;	
 	}
 	
 	/**
-	 * Compares possible moves from current state to children of a node
-	 * and returns true if all the possible moves exist as child nodes of the node.
-	 * Essentially fully expanded for this determinization, not necessarily fully expanded for all determinizations 
-	 * @param n
+	 * Gets the key representing a card action: the card action itself,
+	 * except that with rankPlays a card played is represented by just its rank
+	 * @param state CribbageState
+	 * @param cardAction legal card action
+	 * @return action key
+	 */
+	private int actionKey(CribbageState state, int cardAction) {
+		if (state.getStage() == CribbageStage.PLAY) {
+			return playKey(cardAction);
+		}
+		return cardAction;
+	}
+	
+	/**
+	 * Gets the key for playing a card
+	 * @param id card id
 	 * @return
-	 * @throws Exception
 	 */
-	private boolean fullyExpanded(Node n) throws Exception {
-		int[] moves;
-		switch(determState.getStage()) {
-		case DEAL:
-			throw new Exception("Trying to count children at DEAL stage");
-		case THROW:
-			moves = determState.getActions();
-			for (int i = 0; i < moves.length; i++) {
-				Card[] cards = determState.getCardsThrownByIndex(determState.playerToMove(), moves[i]);
-				if (!n.getChildren().containsKey(new CardTuple(cards[0], cards[1]))) {
-					return false;
-				}
-			}
-			return true;
-		case CUT:
-			if (n.getChildren().containsKey(new CardTuple(determState.getDeck().getCard(12)))) {
-				return true;
-			}
+	private int playKey(int id) {
+		if (rankPlays) {
+			return RANK_KEYS + Card.rank(id);
+		}
+		return id;
+	}
+	
+	/**
+	 * Is moves[i] represented by the same key as an earlier action in moves?
+	 * Only happens with rankPlays, when the player has two cards of the same rank.
+	 * @param state CribbageState
+	 * @param moves legal card actions
+	 * @param i
+	 * @return
+	 */
+	private boolean sameAsEarlierAction(CribbageState state, int[] moves, int i) {
+		if (!rankPlays || state.getStage() != CribbageStage.PLAY) {
 			return false;
-		case PLAY:
-			moves = determState.getActions();
-			for (int i = 0; i < moves.length; i++) {
-				Card card = determState.getFullHand(determState.playerToMove())[moves[i]];
-				if (!n.getChildren().containsKey(new CardTuple(card))) {
-					return false;
-				}
+		}
+		int rank = Card.rank(moves[i]);
+		for (int j = 0; j < i; j++) {
+			if (Card.rank(moves[j]) == rank) {
+				return true;
 			}
-			return true;
-		default:
-			return false;
 		}
+		return false;
 	}
 	
 	/**
-	 * Because of early decisions to treat all actions in gamestate as integers that didn't really represent what the actions meant
-	 * it's necessary for this algorithm to convert those integers into Card representations and then back into integers,
-	 * which is what this method does. 
-	 * @param state CribbageState
-	 * @param actionTup CardTuple representing an action
-	 * @return integer that the state will accept as an action that corresponds to the card(s) in actionTup
-	 * @throws Exception
+	 * Runs the search from one thread: iterates until the budget is used up, creating a new
+	 * determinization of the root state for each iteration, and returns the root of its tree.
 	 */
-	private int findActionFromCard(CribbageState state, CardTuple actionTup) throws Exception {
-		switch (state.getStage()) {
-		case DEAL:
-			throw new Exception("Trying to find action at DEAL stage");
-		case THROW:
-			for (int action : state.getActions()) {
-				Card[] cards = state.getCardsThrownByIndex(state.playerToMove(), action);
-				CardTuple tup = new CardTuple(cards[0], cards[1]);
-				if (tup.equals(actionTup)) {
-					return action;
+	private class SearchWorker implements Callable<Node> {
+		private CribbageState rootState;
+		private Node root;
+		private Random rand;
+		//buffer for actions during playouts
+		private int[] playoutMoves = new int[CribbageState.MAX_ACTIONS];
+		//plays out the pegging at the end of each playout
+		private PeggingSimulator pegging = new PeggingSimulator();
+		//buffer for card actions during the descent
+		private int[] moves = new int[CribbageState.MAX_ACTIONS];
+		//buffer for card actions not tried yet in expand()
+		private int[] notTried = new int[CribbageState.MAX_ACTIONS];
+		//card action of the child chosen by the last bestChild()
+		private int bestAction;
+		
+		//In this version a single state is used rather than storing them in nodes,
+		//and it's reused for every determinization
+		private CribbageState determState;
+		
+		/**
+		 * @param rootState state to search from
+		 * @param root root of the tree to search (shared with other workers, or kept from the last search),
+		 * or null for this worker to build a new tree
+		 */
+		public SearchWorker(CribbageState rootState, Node root) {
+			this.rootState = rootState;
+			this.root = root;
+			rand = new FastRandom();
+		}
+		
+		public Node call() throws Exception {
+			int player = rootState.playerToMove();
+			
+			Node node = root;
+			if (node == null) {
+				//create root node with current state
+				//parent is null, availability count is 0 (never used for root), action is NO_ACTION (never used for root)
+				node = new Node(rootState.playerToMove(), NO_ACTION, null, 0);
+			}
+			
+			determState = new CribbageState(rootState);
+			while (!timeout()) {
+				//create determinization for this playout, in the same state object every time
+				determState.copyFrom(rootState);
+				determState.randomize(player, rand);
+				Node newNode = treePolicy(node);
+				double[] delta = defaultPolicy(determState);
+				backup(newNode, delta);
+				nodesExpanded.incrementAndGet();
+			}
+			return node;
+		}
+		
+		/**
+		 * Descends tree: returns unexpanded node of tree if they exist and are compatible with this determinization
+		 * otherwise descends further using modified UCB1 to choose
+		 * @param n start node
+		 * @return new expanded node or a previously visited terminal node
+		 * @throws Exception 
+		 */
+		private Node treePolicy(Node n) throws Exception {
+			while (!determState.handOver()) {
+				if (fullyExpanded(n)) {
+					n = bestChild(n, Cp);
+					if (sharedTree) {
+						n.addVirtualLoss();
+					}
+					determState.applyCardAction(bestAction);
+				}
+				else {
+					Node child = expand(n);
+					if (child != null) {
+						//action should be already applied in expand()
+						return child;
+					}
+					//another thread has just tried the last untried action, so n can be descended now
 				}
 			}
-			break;
-		case CUT:
-			//only one move is possible
-			return 0;
-		case PLAY:
-			for (int action : state.getActions()) {
-				CardTuple tup = new CardTuple(state.getFullHand(state.playerToMove())[action]);
-				if (tup.equals(actionTup)) {
-					return action;
+			return n;
+		}
+		
+		/**
+		 * Expands node
+		 * @param n node to expand
+		 * @return new child node of n, or null if another thread has already tried all actions
+		 * @throws Exception
+		 */
+		private Node expand(Node n) throws Exception {
+			int numMoves = determState.getCardActions(moves);
+			int numNotTried = 0;
+		
+			//cycle through possible actions and find their keys
+			for (int i = 0; i < numMoves; i++) {
+				if (sameAsEarlierAction(determState, moves, i)) {
+					//already counted as available
+					continue;
 				}
+				int key = actionKey(determState, moves[i]);
+				//for each key, increment number in parent node's available count
+				n.addChildAvailable(key);
+				//also store actions not yet tried
+				if (n.getChild(key) == null) {
+					notTried[numNotTried++] = moves[i];
+				}			
 			}
-			break;
-		default:
-			throw new Exception("Couldn't find action");
+		
+			if (numNotTried == 0) {
+				return null;
+			}
+			
+			//choose a random action and create a new node with that, using parent's value for availability for that child
+			int action = notTried[rand.nextInt(numNotTried)];
+			int key = actionKey(determState, action);
+			//apply action and create new node
+			determState.applyCardAction(action);
+			Node newNode = new Node(determState.playerToMove(), key, n, n.getChildAvailability(key));
+			if (sharedTree) {
+				//before the node can be seen by other threads, so it never looks unvisited
+				newNode.addVirtualLoss();
+			}
+			Node child = n.addChild(key, newNode);
+			if (child != newNode) {
+				//another thread created the same child first
+				child.addVirtualLoss();
+			}
+			return child;
+		}
+		
+		/**
+		 * Plays out game from state s with moves chosen by the playout policy
+		 * @param s state to play from
+		 * @return double value of this playout.
+		 */
+		private double[] defaultPolicy(CribbageState s) {
+			int diff = policy.playOut(s, rand, playoutMoves, pegging);
+			double[] rewards = new double[2];
+			rewards[0] = diff;
+			rewards[1] = -diff;
+			return rewards;
+		}
+		
+		/**
+		 * Returns best child to visit based on modified UCB1 algorithm
+		 * This method also increments child availability count, which would normally be done on the way up in backup(),
+		 * but can't be because of the SO-IS algorithm
+		 * @param n node to find best child of
+		 * @param c constant regulating amount of exploration
+		 * @return the best Node to visit (the card action that leads to it is left in bestAction)
+		 * @throws Exception 
+		 */
+		private Node bestChild(Node n, double c) throws Exception {
+			int player = n.getPlayer();
+			Node maxChild = null;
+			double max = Double.NEGATIVE_INFINITY;
+			int numMoves = determState.getCardActions(moves);
+			for (int i = 0; i < numMoves; i++) {
+				if (sameAsEarlierAction(determState, moves, i)) {
+					//same child, already available
+					continue;
+				}
+				Node child = n.getChild(actionKey(determState, moves[i]));
+				//increment availability:
+				child.addAvailable();
+				//get value, counting traversals by other threads that are still in progress as losses
+				double reward = child.getReward(player);
+				int visits = child.getVisits();
+				if (sharedTree) {
+					int loss = child.getVirtualLoss();
+					reward -= loss * VIRTUAL_LOSS;
+					visits += loss;
+				}
+				double val = reward / visits + c * Math.sqrt(2 * Math.log(child.getAvailability()) / visits);
+				if (val > max) {
+					max = val;
+					maxChild = child;
+					bestAction = moves[i];
+				}
+			}
+			return maxChild;
+		}
+		
+		/**
+		 * Compares possible moves from current state to children of a node
+		 * and returns true if all the possible moves exist as child nodes of the node.
+		 * Essentially fully expanded for this determinization, not necessarily fully expanded for all determinizations 
+		 * @param n
+		 * @return
+		 * @throws Exception
+		 */
+		private boolean fullyExpanded(Node n) throws Exception {
+			if (determState.getStage() == CribbageStage.DEAL) {
+				throw new Exception("Trying to count children at DEAL stage");
+			}
+			int numMoves = determState.getCardActions(moves);
+			for (int i = 0; i < numMoves; i++) {
+				if (n.getChild(actionKey(determState, moves[i])) == null) {
+					return false;
+				}
+			}
+			return true;
 		}
-		return -1;
 	}
 	
 	/**
@@ -335,32 +649,34 @@ public class SingleObserverCribbage implements CribbagePlayer {
 	 */
 	private class Node {
 		private int player;
-		private CardTuple action;
-		private double[] rewards;
-		private int visits;
-		private int available;
+		private int action;
+		private AtomicLongArray rewards; //doubles stored as their long bits, so they can be updated with compareAndSet
+		private AtomicInteger visits;
+		private AtomicInteger available;
+		private AtomicInteger virtualLoss;
 		private Node parent;
-		private HashMap<CardTuple, Node> childNodes;
-		private HashMap<CardTuple, Integer> childAvailabilityCounts; //for use until the child is actually created
+		//children, and availability counts for use until the child is actually created
+		//(replaced by a bigger table as more actions are seen, with this node locked)
+		private volatile ChildTable children;
 		
 		/**
 		 * 
 		 * @param playerToMove player to act at this state
-		 * @param action action taken to get to this node
+		 * @param action key of action taken to get to this node
 		 * @param parent parent Node
 		 * @param availabilityCount number of times this node has already been available (including now)
 		 * @throws Exception
 		 */
-		public Node(int playerToMove, CardTuple action, Node parent, int availabilityCount) throws Exception {
-			visits = 0;
-			rewards = new double[2];
-			childNodes = new HashMap<CardTuple, Node>();
-			childAvailabilityCounts = new HashMap<CardTuple, Integer>();
+		public Node(int playerToMove, int action, Node parent, int availabilityCount) throws Exception {
+			visits = new AtomicInteger();
+			rewards = new AtomicLongArray(2);
+			virtualLoss = new AtomicInteger();
+			children = ChildTable.EMPTY;
 			
 			this.player = playerToMove;
 			this.parent = parent;
 			this.action = action;
-			available = availabilityCount;
+			available = new AtomicInteger(availabilityCount);
 		}
 		
 		public int getPlayer() {
@@ -368,130 +684,306 @@ public class SingleObserverCribbage implements CribbagePlayer {
 		}
 		
 		public void backupVisit(double[] payouts) {
-			visits++;
+			visits.incrementAndGet();
 			for (int i = 0; i < payouts.length; i++) {
-				rewards[i] += payouts[i];
+				long current;
+				long updated;
+				do {
+					current = rewards.get(i);
+					updated = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + payouts[i]);
+				} while (!rewards.compareAndSet(i, current, updated));
 			}
 		}
 		
-		public HashMap<CardTuple, Integer> getChildrenAvailability() {
-			return childAvailabilityCounts;
+		/**
+		 * Increments the number of times the child for an action has been available
+		 * @param key action key
+		 * @return the new availability count
+		 */
+		public int addChildAvailable(int key) {
+			while (true) {
+				ChildTable table = children;
+				int slot = table.find(key);
+				if (slot < 0) {
+					addKey(key);
+				}
+				else {
+					int count = table.increment(slot);
+					if (count != ChildTable.MOVED) {
+						return count;
+					}
+					//the table was replaced, try again in the new one
+				}
+			}
+		}
+		
+		public int getChildAvailability(int key) {
+			while (true) {
+				ChildTable table = children;
+				int count = table.getCount(table.find(key));
+				if (count != ChildTable.MOVED) {
+					return count;
+				}
+			}
+		}
+		
+		/**
+		 * Gets the child for an action
+		 * @param key action key
+		 * @return null if there isn't one (yet)
+		 */
+		public Node getChild(int key) {
+			ChildTable table = children;
+			int slot = table.find(key);
+			if (slot < 0) {
+				return null;
+			}
+			return table.getChild(slot);
+		}
+		
+		/**
+		 * Makes a list of the children, for use after the search
+		 * @return
+		 */
+		public List<Node> getChildNodes() {
+			List<Node> list = new ArrayList<Node>();
+			ChildTable table = children;
+			for (int i = 0; i < table.capacity(); i++) {
+				Node child = table.getChild(i);
+				if (child != null) {
+					list.add(child);
+				}
+			}
+			return list;
+		}
+		
+		/**
+		 * Adds a slot for an action, if there isn't one yet
+		 * @param key action key
+		 */
+		private synchronized void addKey(int key) {
+			if (children.find(key) >= 0) {
+				return;
+			}
+			if (children.isFull()) {
+				children = children.grow();
+			}
+			children.insert(key);
 		}
 		
 		public Node getParent() {
 			return parent;
 		}
 		
-		public CardTuple getAction() {
+		/**
+		 * Cuts this node off from its parent, to start a search from it
+		 */
+		public void makeRoot() {
+			parent = null;
+		}
+		
+		public int getAction() {
 			return action;
 		}
 		
-		public void addChild(CardTuple tup, Node child) {
-			childNodes.put(tup, child);
+		/**
+		 * Adds child unless another thread already added a child for the same action
+		 * @param key action key
+		 * @param child
+		 * @return the child that is in the tree for this action
+		 */
+		public synchronized Node addChild(int key, Node child) {
+			addKey(key);
+			int slot = children.find(key);
+			Node existing = children.getChild(slot);
+			if (existing != null) {
+				return existing;
+			}
+			children.setChild(slot, child);
+			return child;
 		}
 		
 		public int getVisits() {
-			return visits;
+			return visits.get();
 		}
 		
 		public void addAvailable() {
-			available++;
+			available.incrementAndGet();
 		}
 		
 		public int getAvailability() {
-			return available;
+			return available.get();
 		}
 		
-		public double getReward(int player) {
-			if (player == -1) {
-				return 0.0;
-			}
-			return rewards[player];
+		/**
+		 * Marks this node as being on the path of a traversal that hasn't been backed up yet
+		 */
+		public void addVirtualLoss() {
+			virtualLoss.incrementAndGet();
 		}
 		
-		public HashMap<CardTuple, Node> getChildren() {
-			return childNodes;
+		public void removeVirtualLoss() {
+			virtualLoss.decrementAndGet();
 		}
 		
-	}
-
-	/**
-	 * This method calls the search unless the move is just an option of one action
-	 */
-	public int getMove(CribbageState gameState) throws Exception {
-		int[] moves = gameState.getActions();
-		if (moves.length == 1) {
-			return moves[0];
+		public int getVirtualLoss() {
+			return virtualLoss.get();
 		}
-		else {
-			return search(gameState);
+		
+		public double getReward(int player) {
+			if (player == -1) {
+				return 0.0;
+			}
+			return Double.longBitsToDouble(rewards.get(player));
 		}
+		
 	}
 	
 	/**
-	 * Holds up to two Cards, Equality is defined as consisting of same cards, but order doesn't matter
-	 * This class is necessary because the CribbageState class treats actions as meaningless integers, more or less
-	 * The SO-IS MCTS algorithm really needs more meaningful representations of actions
-	 * (that are distinguishable across different determinizations), and being able to hash those representations is very helpful
-	 * Also sometimes an action is a single card played, while other times an action is two cards played simultaneously,
-	 * so we need one OR two cards in a tuple.
+	 * Open addressing hash table from action keys to children and availability counts, for a Node.
+	 * Lookups and counting don't lock, so threads searching a shared tree can use it at the same time,
+	 * but keys and children are only added, and the table only replaced by a bigger one, with the node locked.
+	 * When the table is replaced, each count is set to MOVED in the old table as it's copied,
+	 * so threads counting in the old table know to try again in the new one.
 	 */
-	private class CardTuple {
-		private Card first;
-		private Card second;
+	private static class ChildTable {
+		public static final int MOVED = -1;
+		//table of a node without children, shared by all of them (it's full, so it's replaced before anything is added)
+		public static final ChildTable EMPTY = new ChildTable(1);
+		private static final int MIN_CAPACITY = 8;
+		
+		//key + 1 (0 for an empty slot) and count for each slot
+		private AtomicIntegerArray slots;
+		private AtomicReferenceArray<Node> children;
+		private int size;
 		
-		public CardTuple(Card first) {
-			this.first = first;
-			second = null;
+		/**
+		 * @param capacity power of 2
+		 */
+		public ChildTable(int capacity) {
+			slots = new AtomicIntegerArray(2 * capacity);
+			children = new AtomicReferenceArray<Node>(capacity);
 		}
 		
-		public CardTuple(Card a, Card b) {
-			//set first to the smaller card
-			if (a.compareTo(b) > 0) {
-				first = b;
-				second = a;
-			}
-			else {
-				first = a;
-				second = b;
+		public int capacity() {
+			return children.length();
+		}
+		
+		/**
+		 * Finds the slot for key
+		 * @param key
+		 * @return slot, or -1 if key isn't in the table
+		 */
+		public int find(int key) {
+			int mask = capacity() - 1;
+			int h = key * 0x9E3779B9;
+			for (int i = (h ^ (h >>> 16)) & mask; ; i = (i + 1) & mask) {
+				int k = slots.get(2 * i);
+				if (k == key + 1) {
+					return i;
+				}
+				if (k == 0) {
+					return -1;
+				}
 			}
 		}
 		
-		public boolean equals(Object o) {
-			CardTuple other = (CardTuple) o;
-			if (other == null) {
-				return false;
+		/**
+		 * Adds key, which isn't in the table yet, with a count of 0 (with the node locked)
+		 * @param key
+		 * @return slot
+		 */
+		public int insert(int key) {
+			int mask = capacity() - 1;
+			int h = key * 0x9E3779B9;
+			int i = (h ^ (h >>> 16)) & mask;
+			while (slots.get(2 * i) != 0) {
+				i = (i + 1) & mask;
 			}
-			if (second == null) {
-				if (other.second == null) {
-					if (first.equals(other.first)) {
-						return true;
-					}
-					return false;
+			slots.set(2 * i, key + 1);
+			size++;
+			return i;
+		}
+		
+		/**
+		 * Is the table too full to add another key? (at most 3/4 full, so find() always reaches an empty slot)
+		 * @return
+		 */
+		public boolean isFull() {
+			return 4 * (size + 1) > 3 * capacity();
+		}
+		
+		/**
+		 * Copies everything into a table twice the size (with the node locked)
+		 * @return the new table
+		 */
+		public ChildTable grow() {
+			ChildTable bigger = new ChildTable(Math.max(MIN_CAPACITY, 2 * capacity()));
+			for (int i = 0; i < capacity(); i++) {
+				int k = slots.get(2 * i);
+				if (k != 0) {
+					int slot = bigger.insert(k - 1);
+					bigger.slots.set(2 * slot + 1, slots.getAndSet(2 * i + 1, MOVED));
+					bigger.children.set(slot, children.get(i));
 				}
-				return false;
 			}
-			else if ((first.equals(other.first) && second.equals(other.second)) || (first.equals(other.second) && second.equals(other.first)) ) {
-				return true;
-			}
-			return false;
+			return bigger;
 		}
 		
-		public int hashCode() {
-			int result = 1;
-			int p = 37;
-			result = p * result + first.getRank();
-			result = p * result + first.getSuit().ordinal() + 1;
-			if (second != null) {
-				result = p * result + second.getRank();
-				result = p * result + second.getSuit().ordinal() + 1;
+		/**
+		 * Adds 1 to the count in a slot
+		 * @param slot
+		 * @return new count, or MOVED if the table has been replaced
+		 */
+		public int increment(int slot) {
+			while (true) {
+				int count = slots.get(2 * slot + 1);
+				if (count == MOVED) {
+					return MOVED;
+				}
+				if (slots.compareAndSet(2 * slot + 1, count, count + 1)) {
+					return count + 1;
+				}
 			}
-			return result;
 		}
 		
+		/**
+		 * @param slot
+		 * @return count, or MOVED if the table has been replaced
+		 */
+		public int getCount(int slot) {
+			return slots.get(2 * slot + 1);
+		}
+		
+		public Node getChild(int slot) {
+			return children.get(slot);
+		}
+		
+		public void setChild(int slot, Node child) {
+			children.set(slot, child);
+		}
+	}
+
+	/**
+	 * This method calls the search unless the move is just an option of one action
+	 */
+	public int getMove(CribbageState gameState) throws Exception {
+		int[] moves = gameState.getActions();
+		if (moves.length == 1) {
+			return moves[0];
+		}
+		else {
+			return search(gameState);
+		}
 	}
 	
 	public String toString() {
-		return "SO-ISMCTS (" + Cp + ", " + (maxTime / 1000000) + ", " + maxNodes + ")";
+		String ranks = rankPlays ? ", plays by rank" : "";
+		String reuse = reuseTree ? ", tree kept" : "";
+		String playouts = policy != PlayoutPolicy.RANDOM ? ", " + policy : "";
+		if (threads > 1) {
+			return "SO-ISMCTS (" + Cp + ", " + (maxTime / 1000000) + ", " + maxNodes + ", " + threads + (sharedTree ? " threads, shared tree" : " threads") + ranks + reuse + playouts + ")";
+		}
+		return "SO-ISMCTS (" + Cp + ", " + (maxTime / 1000000) + ", " + maxNodes + ranks + reuse + playouts + ")";
 	}
 }
@@ -0,0 +1,116 @@
+/**
+ * Maps sets of cards to a canonical form under permutations of the suits.
+ * Suits only matter in Cribbage by being the same or different (flushes, his nobs), so hands that only differ
+ * by renaming suits play the same way, and can share a key in a cache or a tree (up to 24 hands per key).
+ *
+ * A permutation is an int with 2 bits per suit: bits 2s-2s+1 are the suit that suit s becomes.
+ * Cards are card ids (see Card.getId()) or card masks, and a suit's cards are 13 bits of a mask.
+ * A hand mapped card by card keeps its order, so THROW and PLAY actions (positions in the hand) don't change.
+ *
+ */
+public class SuitIsomorphism {
+
+	//permutation that leaves every suit alone
+	public static final int IDENTITY = (3 << 6) | (2 << 4) | (1 << 2);
+
+	private static final long SUIT_MASK = (1L << 13) - 1;
+
+	/**
+	 * Gets the permutation that makes a set of cards canonical:
+	 * suits are ordered by their cards (as 13 bit numbers), the suit with the highest going first
+	 * @param cards card mask
+	 * @return permutation
+	 */
+	public static int canonicalize(long cards) {
+		return canonicalize(cards, 0);
+	}
+
+	/**
+	 * Gets the permutation that makes a hand canonical, with known cards (e.g. the cut or cards played)
+	 * breaking ties between suits with the same cards in the hand
+	 * @param hand card mask
+	 * @param known card mask of other cards that matter, not in hand
+	 * @return permutation
+	 */
+	public static int canonicalize(long hand, long known) {
+		//sort key for each suit: hand cards first, then known cards
+		long k0 = suitKey(hand, known, 0);
+		long k1 = suitKey(hand, known, 1);
+		long k2 = suitKey(hand, known, 2);
+		long k3 = suitKey(hand, known, 3);
+		//a suit's new position is the number of suits that go before it
+		//(suits with equal keys have the same cards, so they are ordered by suit to keep positions different)
+		int p0 = (k1 > k0 ? 1 : 0) + (k2 > k0 ? 1 : 0) + (k3 > k0 ? 1 : 0);
+		int p1 = (k0 >= k1 ? 1 : 0) + (k2 > k1 ? 1 : 0) + (k3 > k1 ? 1 : 0);
+		int p2 = (k0 >= k2 ? 1 : 0) + (k1 >= k2 ? 1 : 0) + (k3 > k2 ? 1 : 0);
+		int p3 = (k0 >= k3 ? 1 : 0) + (k1 >= k3 ? 1 : 0) + (k2 >= k3 ? 1 : 0);
+		return p0 | (p1 << 2) | (p2 << 4) | (p3 << 6);
+	}
+
+	/**
+	 * Gets the canonical form of a set of cards
+	 * @param cards card mask
+	 * @return card mask, the same for every set of cards that only differs by suits
+	 */
+	public static long canonical(long cards) {
+		return apply(cards, canonicalize(cards));
+	}
+
+	/**
+	 * Changes the suits of a set of cards
+	 * @param cards card mask
+	 * @param permutation
+	 * @return card mask
+	 */
+	public static long apply(long cards, int permutation) {
+		long result = 0;
+		for (int s = 0; s < 4; s++) {
+			result |= ((cards >>> (13 * s)) & SUIT_MASK) << (13 * newSuit(permutation, s));
+		}
+		return result;
+	}
+
+	/**
+	 * Changes the suit of a card
+	 * @param id card id
+	 * @param permutation
+	 * @return card id
+	 */
+	public static int applyToCard(int id, int permutation) {
+		return newSuit(permutation, Card.suit(id)) * 13 + id % 13;
+	}
+
+	/**
+	 * Gets the permutation that undoes permutation, for mapping canonical cards back
+	 * @param permutation
+	 * @return
+	 */
+	public static int inverse(int permutation) {
+		int inverse = 0;
+		for (int s = 0; s < 4; s++) {
+			inverse |= s << (2 * newSuit(permutation, s));
+		}
+		return inverse;
+	}
+
+	/**
+	 * Gets the suit that suit becomes
+	 * @param permutation
+	 * @param suit
+	 * @return
+	 */
+	public static int newSuit(int permutation, int suit) {
+		return (permutation >>> (2 * suit)) & 3;
+	}
+
+	/**
+	 * Gets the key a suit is sorted by
+	 * @param hand card mask
+	 * @param known card mask
+	 * @param suit
+	 * @return
+	 */
+	private static long suitKey(long hand, long known, int suit) {
+		return (((hand >>> (13 * suit)) & SUIT_MASK) << 13) | ((known >>> (13 * suit)) & SUIT_MASK);
+	}
+}